@@ -2,12 +2,73 @@
 // CS 211 - Final Project | Java OOP Version (No Emoji Output)
 // Author: (Your Name)
 // Compile: javac QuakeGuard.java
-// Run: java QuakeGuard
+// Run: java QuakeGuard [--columnar] [--import locations.csv] [--feed events.log|port] [--catalog events.csv]
+//      java QuakeGuard --stress [--columnar]   (concurrency check of the location store)
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.InputMismatchException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.regex.Pattern;
 
 class InvalidRiskLevelException extends Exception {
     public InvalidRiskLevelException(String message) {
@@ -15,114 +76,3133 @@ class InvalidRiskLevelException extends Exception {
     }
 }
 
+enum RiskLevel {
+    LOW("Low"), MODERATE("Moderate"), HIGH("High");
+
+    private static final HashMap<String, RiskLevel> BY_LABEL = new HashMap<>();
+    static {
+        for (RiskLevel risk : values()) BY_LABEL.put(risk.label.toLowerCase(Locale.ROOT), risk);
+    }
+
+    private final String label;
+
+    RiskLevel(String label) { this.label = label; }
+
+    public String getLabel() { return label; }
+
+    public List<String> getPreparednessTips() {
+        return this == LOW ? LOW_RISK_TIPS : AT_RISK_TIPS;
+    }
+
+    private static final List<String> AT_RISK_TIPS = List.of(
+            "Keep a Go-Bag ready (food, water, medicine).",
+            "Know safe spots in your home.",
+            "Secure heavy objects and join drills.");
+    private static final List<String> LOW_RISK_TIPS = List.of("Stay alert and aware of PHIVOLCS updates.");
+
+    public static RiskLevel parse(String input) throws InvalidRiskLevelException {
+        RiskLevel risk = input == null ? null : BY_LABEL.get(input.trim().toLowerCase(Locale.ROOT));
+        if (risk == null) throw new InvalidRiskLevelException("Allowed: Low, Moderate, High only.");
+        return risk;
+    }
+
+    // For trusted labels (seed data); user input goes through parse().
+    public static RiskLevel of(String label) {
+        try {
+            return parse(label);
+        } catch (InvalidRiskLevelException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+}
+
 abstract class Location {
+    private static final AtomicIntegerFieldUpdater<Location> QUAKES =
+            AtomicIntegerFieldUpdater.newUpdater(Location.class, "historicalQuakes");
+
     private String name;
-    private String riskLevel;
-    private int historicalQuakes;
-    private double lastMagnitude;
+    private RiskLevel risk;
+    private volatile int historicalQuakes;
+    private volatile double lastMagnitude;
     private double distanceToFaultLineKm;
+    private double latitude;
+    private double longitude;
+
+    // Coordinates are decimal degrees; pass Double.NaN when they are not known.
+    public Location(String name, RiskLevel risk, int historicalQuakes, double lastMagnitude, double distanceToFaultLineKm,
+            double latitude, double longitude) {
+        this.name = name;
+        this.risk = risk;
+        this.historicalQuakes = historicalQuakes;
+        this.lastMagnitude = lastMagnitude;
+        this.distanceToFaultLineKm = distanceToFaultLineKm;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public Location(String name, String riskLevel, int historicalQuakes, double lastMagnitude, double distanceToFaultLineKm,
+            double latitude, double longitude) {
+        this(name, RiskLevel.of(riskLevel), historicalQuakes, lastMagnitude, distanceToFaultLineKm, latitude, longitude);
+    }
+
+    public String getName() { return name; }
+    public RiskLevel getRisk() { return risk; }
+    public String getRiskLevel() { return risk.getLabel(); }
+    public int getHistoricalQuakes() { return historicalQuakes; }
+    public double getLastMagnitude() { return lastMagnitude; }
+    public double getDistanceToFaultLineKm() { return distanceToFaultLineKm; }
+    public double getLatitude() { return latitude; }
+    public double getLongitude() { return longitude; }
+    public boolean hasCoordinates() { return !Double.isNaN(latitude) && !Double.isNaN(longitude); }
+
+    // Applied by the live quake feed: lock-free, so readers never wait on it.
+    public void recordQuake(double magnitude) {
+        QUAKES.incrementAndGet(this);
+        lastMagnitude = magnitude;
+    }
+
+    public abstract String getType();
+
+    public String getDetails() {
+        return String.format(
+            "\nLocation: %s (%s)\nRisk Level: %s\nHistorical Earthquakes: %d\nLast Major Magnitude: %.1f\nDistance to Fault Line: %.1f km\n",
+            getName(), getType(), getRiskLevel(), getHistoricalQuakes(), getLastMagnitude(), getDistanceToFaultLineKm()
+        ) + (hasCoordinates() ? String.format("Coordinates: %.4f, %.4f\n", latitude, longitude) : "");
+    }
+}
+
+class CityLocation extends Location {
+    public CityLocation(String name, RiskLevel risk, int historicalQuakes, double lastMagnitude, double distanceToFaultLineKm,
+            double latitude, double longitude) {
+        super(name, risk, historicalQuakes, lastMagnitude, distanceToFaultLineKm, latitude, longitude);
+    }
+    public CityLocation(String name, String riskLevel, int historicalQuakes, double lastMagnitude, double distanceToFaultLineKm,
+            double latitude, double longitude) {
+        super(name, riskLevel, historicalQuakes, lastMagnitude, distanceToFaultLineKm, latitude, longitude);
+    }
+    @Override
+    public String getType() { return "City"; }
+}
+
+class ProvinceLocation extends Location {
+    public ProvinceLocation(String name, RiskLevel risk, int historicalQuakes, double lastMagnitude, double distanceToFaultLineKm,
+            double latitude, double longitude) {
+        super(name, risk, historicalQuakes, lastMagnitude, distanceToFaultLineKm, latitude, longitude);
+    }
+    public ProvinceLocation(String name, String riskLevel, int historicalQuakes, double lastMagnitude, double distanceToFaultLineKm,
+            double latitude, double longitude) {
+        super(name, riskLevel, historicalQuakes, lastMagnitude, distanceToFaultLineKm, latitude, longitude);
+    }
+    @Override
+    public String getType() { return "Province"; }
+}
+
+// Growable int array, used for id lists so indexes don't box.
+class IntList {
+    private int[] values;
+    private int size;
+
+    public IntList() { this(8); }
+    public IntList(int capacity) { values = new int[Math.max(capacity, 1)]; }
+
+    public int size() { return size; }
+    public int get(int index) { return values[index]; }
+    public void clear() { size = 0; }
+
+    public void add(int value) {
+        insert(size, value);
+    }
+
+    public void insert(int index, int value) {
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+    }
+}
+
+// Case- and accent-insensitive name index: normalized key -> location id.
+class LocationNameIndex {
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    // "Parañaque  City" -> "paranaque city"
+    public static String normalize(String name) {
+        String folded = name;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 128) {
+                folded = COMBINING_MARKS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("");
+                break;
+            }
+        }
+        StringBuilder key = new StringBuilder(folded.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = key.length() > 0;
+            } else {
+                if (pendingSpace) key.append(' ');
+                key.append(Character.toLowerCase(c));
+                pendingSpace = false;
+            }
+        }
+        return key.toString();
+    }
+
+    // Open-addressing table of id + 1 (0 = empty) with each slot's key hash
+    // alongside, so probes and rehashes only read a key back from the rows
+    // when the hashes already match. About three ints per location.
+    private final LocationRows rows;
+    private int[] slots = new int[128];
+    private int[] hashes = new int[128];
+    private int shift = 32 - 7;
+    private int used;
+
+    public LocationNameIndex(LocationRows rows) {
+        this.rows = rows;
+    }
+
+    // Presizes the table before a bulk insert.
+    public void ensureCapacity(int locations) {
+        int capacity = slots.length;
+        while (locations * 2 > capacity) capacity *= 2;
+        if (capacity != slots.length) rehash(capacity);
+    }
+
+    // The first location registered under a key keeps it.
+    public void put(String key, int id) {
+        if ((used + 1) * 2 > slots.length) rehash(slots.length * 2);
+        int hash = key.hashCode();
+        int slot = slotOf(key, hash);
+        if (slots[slot] == 0) {
+            slots[slot] = id + 1;
+            hashes[slot] = hash;
+            used++;
+        }
+    }
+
+    public int get(String key) {
+        return slots[slotOf(key, key.hashCode())] - 1;
+    }
+
+    private int slotOf(String key, int hash) {
+        int mask = slots.length - 1;
+        int slot = spread(hash, shift);
+        while (slots[slot] != 0 && (hashes[slot] != hash || !rows.key(slots[slot] - 1).equals(key)))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldSlots = slots, oldHashes = hashes;
+        slots = new int[capacity];
+        hashes = new int[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == 0) continue;
+            int slot = spread(oldHashes[i], shift);
+            while (slots[slot] != 0) slot = (slot + 1) & (capacity - 1);
+            slots[slot] = oldSlots[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+
+    // Fibonacci hashing: the top bits of hash * 2^32/phi pick the slot.
+    static int spread(int hash, int shift) {
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+}
+
+// Spatial index over location coordinates: a fixed grid of square lat/lon cells
+// hashed by (row, col). Radius queries only visit the cells overlapping the
+// search box; k-nearest queries walk rings of cells outward from the query
+// point and stop once no unvisited ring can beat the current k-th distance.
+// Longitude does not wrap at the antimeridian, which is fine for PH data.
+class LocationGrid {
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+    private static final long COLUMNS = 1L << 32;
+
+    private final double cellDegrees;
+    private final HashMap<Long, IntList> cells = new HashMap<>();
+    private double[] latitudes = new double[64];
+    private double[] longitudes = new double[64];
+    private int minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE;
+    private int minCol = Integer.MAX_VALUE, maxCol = Integer.MIN_VALUE;
+
+    public LocationGrid(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    public static boolean isValid(double latitude, double longitude) {
+        return latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180;
+    }
+
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    public void add(int id, double latitude, double longitude) {
+        if (id >= latitudes.length) {
+            int capacity = Math.max(latitudes.length * 2, id + 1);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+        }
+        latitudes[id] = latitude;
+        longitudes[id] = longitude;
+        int row = row(latitude), col = col(longitude);
+        cells.computeIfAbsent(key(row, col), k -> new IntList(4)).add(id);
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+        minCol = Math.min(minCol, col);
+        maxCol = Math.max(maxCol, col);
+    }
+
+    // Ids within radiusKm of the point, nearest first.
+    public int[] within(double latitude, double longitude, double radiusKm) {
+        if (cells.isEmpty()) return new int[0];
+        double dLat = radiusKm / KM_PER_DEGREE;
+        double dLon = radiusKm / (KM_PER_DEGREE * Math.max(Math.cos(Math.toRadians(Math.min(89.9, Math.abs(latitude) + dLat))), 1e-6));
+        int fromRow = Math.max(minRow, row(latitude - dLat)), toRow = Math.min(maxRow, row(latitude + dLat));
+        int fromCol = Math.max(minCol, col(longitude - dLon)), toCol = Math.min(maxCol, col(longitude + dLon));
+
+        long[] hits = new long[16];
+        int count = 0;
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int col = fromCol; col <= toCol; col++) {
+                IntList cell = cells.get(key(row, col));
+                if (cell == null) continue;
+                for (int i = 0; i < cell.size(); i++) {
+                    int id = cell.get(i);
+                    double km = distanceKm(latitude, longitude, latitudes[id], longitudes[id]);
+                    if (km > radiusKm) continue;
+                    if (count == hits.length) hits = Arrays.copyOf(hits, count * 2);
+                    hits[count++] = pack(km, id);
+                }
+            }
+        }
+        Arrays.sort(hits, 0, count);
+        return unpack(hits, count);
+    }
+
+    // The k ids closest to the point, nearest first.
+    public int[] nearest(double latitude, double longitude, int k) {
+        if (cells.isEmpty() || k <= 0) return new int[0];
+        long[] best = new long[k];
+        int count = 0;
+        int centerRow = row(latitude), centerCol = col(longitude);
+        int maxRing = Math.max(Math.max(Math.abs(centerRow - minRow), Math.abs(centerRow - maxRow)),
+                Math.max(Math.abs(centerCol - minCol), Math.abs(centerCol - maxCol)));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Any cell in this ring is at least (ring - 1) whole cells away from the query point.
+            if (count == k && lowerBoundKm(latitude, ring) > unpackKm(best[k - 1])) break;
+            int fromCol = Math.max(minCol, centerCol - ring), toCol = Math.min(maxCol, centerCol + ring);
+            for (int row = Math.max(minRow, centerRow - ring); row <= Math.min(maxRow, centerRow + ring); row++) {
+                if (row == centerRow - ring || row == centerRow + ring) {
+                    for (int col = fromCol; col <= toCol; col++)
+                        count = offer(cells.get(key(row, col)), latitude, longitude, best, count);
+                } else {
+                    count = offer(cells.get(key(row, centerCol - ring)), latitude, longitude, best, count);
+                    count = offer(cells.get(key(row, centerCol + ring)), latitude, longitude, best, count);
+                }
+            }
+        }
+        return unpack(best, count);
+    }
+
+    // Merges a cell's ids into the sorted best-k array; returns the new fill count.
+    private int offer(IntList cell, double latitude, double longitude, long[] best, int count) {
+        if (cell == null) return count;
+        int k = best.length;
+        for (int i = 0; i < cell.size(); i++) {
+            int id = cell.get(i);
+            long hit = pack(distanceKm(latitude, longitude, latitudes[id], longitudes[id]), id);
+            int j;
+            if (count < k) {
+                j = count++;
+            } else if (hit < best[k - 1]) {
+                j = k - 1;
+            } else {
+                continue;
+            }
+            for (; j > 0 && best[j - 1] > hit; j--) best[j] = best[j - 1];
+            best[j] = hit;
+        }
+        return count;
+    }
+
+    private double lowerBoundKm(double latitude, int ring) {
+        if (ring <= 1) return 0;
+        double farthestLat = Math.min(90, Math.abs(latitude) + (ring + 1) * cellDegrees);
+        return (ring - 1) * cellDegrees * KM_PER_DEGREE * Math.cos(Math.toRadians(farthestLat));
+    }
+
+    private int row(double latitude) { return (int) Math.floor((latitude + 90) / cellDegrees); }
+    private int col(double longitude) { return (int) Math.floor((longitude + 180) / cellDegrees); }
+    private static long key(int row, int col) { return row * COLUMNS + col; }
+
+    // Non-negative float bits sort like the floats themselves, so (distance, id)
+    // pairs pack into one long that sorts nearest first.
+    private static long pack(double km, int id) {
+        return ((long) Float.floatToIntBits((float) km) << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    private static double unpackKm(long hit) {
+        return Float.intBitsToFloat((int) (hit >>> 32));
+    }
+
+    private static int[] unpack(long[] hits, int count) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) ids[i] = (int) hits[i];
+        return ids;
+    }
+}
+
+// Row storage behind LocationStore, addressed by id. ObjectLocationRows keeps
+// the Location objects themselves; ColumnarLocationRows keeps one primitive
+// array per field. Either way the store and its indexes only deal in ids.
+abstract class LocationRows {
+    public abstract int size();
+
+    // Stores the location under the next id and returns that id.
+    public abstract int append(Location loc, String key);
+
+    // The same from plain field values, for bulk loads that have no Location objects.
+    public abstract int appendRow(String name, String key, boolean province, RiskLevel risk, int quakes,
+            double magnitude, double faultDistance, double latitude, double longitude);
+
+    public abstract Location get(int id);
+    public abstract String name(int id);
+    public abstract String key(int id);
+    public abstract RiskLevel risk(int id);
+    public abstract int quakes(int id);
+    public abstract double magnitude(int id);
+    public abstract double faultDistance(int id);
+    public abstract boolean isProvince(int id);
+    public abstract double latitude(int id);
+    public abstract double longitude(int id);
+
+    // Counts one more quake and sets the last magnitude, atomically per field.
+    public abstract void recordQuake(int id, double magnitude);
+}
+
+class ObjectLocationRows extends LocationRows {
+    // Volatile so a quake recorded without the store lock finds its Location in
+    // whichever array it reads; the copy is complete before the new one is published.
+    private volatile Location[] locations = new Location[64];
+    private String[] keys = new String[64];
+    private int size;
+
+    @Override public int size() { return size; }
+
+    @Override
+    public int append(Location loc, String key) {
+        if (size == locations.length) {
+            locations = Arrays.copyOf(locations, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        locations[size] = loc;
+        keys[size] = key;
+        return size++;
+    }
+
+    @Override
+    public int appendRow(String name, String key, boolean province, RiskLevel risk, int quakes,
+            double magnitude, double faultDistance, double latitude, double longitude) {
+        return append(province
+                ? new ProvinceLocation(name, risk, quakes, magnitude, faultDistance, latitude, longitude)
+                : new CityLocation(name, risk, quakes, magnitude, faultDistance, latitude, longitude), key);
+    }
+
+    @Override public Location get(int id) { return locations[id]; }
+    @Override public String name(int id) { return locations[id].getName(); }
+    @Override public String key(int id) { return keys[id]; }
+    @Override public RiskLevel risk(int id) { return locations[id].getRisk(); }
+    @Override public int quakes(int id) { return locations[id].getHistoricalQuakes(); }
+    @Override public double magnitude(int id) { return locations[id].getLastMagnitude(); }
+    @Override public double faultDistance(int id) { return locations[id].getDistanceToFaultLineKm(); }
+    @Override public boolean isProvince(int id) { return locations[id] instanceof ProvinceLocation; }
+    @Override public double latitude(int id) { return locations[id].getLatitude(); }
+    @Override public double longitude(int id) { return locations[id].getLongitude(); }
+    @Override public void recordQuake(int id, double magnitude) { locations[id].recordQuake(magnitude); }
+}
+
+// Struct-of-arrays rows for national-scale datasets. Names are interned in a
+// dictionary together with their collation key (barangay names repeat a lot),
+// numbers sit in primitive columns (float is ample for magnitudes, km and
+// coordinates), and get() materializes a short-lived Location view that shares
+// the interned name. Scans through name()/risk() never create objects.
+// Quake counts and last magnitudes keep changing after a row is added (the live
+// feed updates them without a lock), so they sit in fixed-size chunks that
+// growing never copies: a chunk, once published, is where its counters stay,
+// and an update can never land in an array that is being replaced.
+class ColumnarLocationRows extends LocationRows {
+    private static final RiskLevel[] RISKS = RiskLevel.values();
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle FLOATS = MethodHandles.arrayElementVarHandle(float[].class);
+    private static final byte CITY = 0, PROVINCE = 1;
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private int size;
+    private int[] nameCodes = new int[64];
+    private byte[] types = new byte[64];
+    private byte[] risks = new byte[64];
+    private volatile int[][] quakeChunks = new int[0][];
+    private volatile float[][] magnitudeChunks = new float[0][];
+    private float[] faultDistances = new float[64];
+    private float[] latitudes = new float[64];
+    private float[] longitudes = new float[64];
+
+    // Name dictionary: code -> name/key, plus an open-addressing table of code + 1.
+    private String[] names = new String[64];
+    private String[] nameKeys = new String[64];
+    private int nameCount;
+    private int[] nameSlots = new int[128];
+
+    @Override public int size() { return size; }
+
+    @Override
+    public int append(Location loc, String key) {
+        return appendRow(loc.getName(), key, loc instanceof ProvinceLocation, loc.getRisk(), loc.getHistoricalQuakes(),
+                loc.getLastMagnitude(), loc.getDistanceToFaultLineKm(), loc.getLatitude(), loc.getLongitude());
+    }
+
+    @Override
+    public int appendRow(String name, String key, boolean province, RiskLevel risk, int quakes,
+            double magnitude, double faultDistance, double latitude, double longitude) {
+        if (size == types.length) grow(size * 2);
+        if ((size & CHUNK_MASK) == 0) addChunk();
+        nameCodes[size] = intern(name, key);
+        types[size] = province ? PROVINCE : CITY;
+        risks[size] = (byte) risk.ordinal();
+        quakeChunks[size >>> CHUNK_BITS][size & CHUNK_MASK] = quakes;
+        magnitudeChunks[size >>> CHUNK_BITS][size & CHUNK_MASK] = (float) magnitude;
+        faultDistances[size] = (float) faultDistance;
+        latitudes[size] = (float) latitude;
+        longitudes[size] = (float) longitude;
+        return size++;
+    }
+
+    @Override
+    public Location get(int id) {
+        String name = names[nameCodes[id]];
+        RiskLevel risk = RISKS[risks[id]];
+        if (types[id] == PROVINCE)
+            return new ProvinceLocation(name, risk, quakes(id), magnitude(id), faultDistances[id], latitudes[id], longitudes[id]);
+        return new CityLocation(name, risk, quakes(id), magnitude(id), faultDistances[id], latitudes[id], longitudes[id]);
+    }
+
+    @Override public String name(int id) { return names[nameCodes[id]]; }
+    @Override public String key(int id) { return nameKeys[nameCodes[id]]; }
+    @Override public RiskLevel risk(int id) { return RISKS[risks[id]]; }
+    @Override public int quakes(int id) { return (int) INTS.getVolatile(quakeChunks[id >>> CHUNK_BITS], id & CHUNK_MASK); }
+    @Override public double magnitude(int id) { return (float) FLOATS.getVolatile(magnitudeChunks[id >>> CHUNK_BITS], id & CHUNK_MASK); }
+    @Override public double faultDistance(int id) { return faultDistances[id]; }
+    @Override public boolean isProvince(int id) { return types[id] == PROVINCE; }
+    @Override public double latitude(int id) { return latitudes[id]; }
+    @Override public double longitude(int id) { return longitudes[id]; }
+
+    @Override
+    public void recordQuake(int id, double magnitude) {
+        INTS.getAndAdd(quakeChunks[id >>> CHUNK_BITS], id & CHUNK_MASK, 1);
+        FLOATS.setVolatile(magnitudeChunks[id >>> CHUNK_BITS], id & CHUNK_MASK, (float) magnitude);
+    }
+
+    // The new chunk is complete before the volatile write publishes it; the
+    // directory copy only moves references to chunks that stay where they are.
+    private void addChunk() {
+        int[][] quakeDirectory = Arrays.copyOf(quakeChunks, quakeChunks.length + 1);
+        quakeDirectory[quakeDirectory.length - 1] = new int[CHUNK_MASK + 1];
+        float[][] magnitudeDirectory = Arrays.copyOf(magnitudeChunks, magnitudeChunks.length + 1);
+        magnitudeDirectory[magnitudeDirectory.length - 1] = new float[CHUNK_MASK + 1];
+        quakeChunks = quakeDirectory;
+        magnitudeChunks = magnitudeDirectory;
+    }
+
+    private int intern(String name, String key) {
+        int mask = nameSlots.length - 1;
+        int slot = LocationNameIndex.spread(name.hashCode(), Integer.numberOfLeadingZeros(mask));
+        while (nameSlots[slot] != 0) {
+            int code = nameSlots[slot] - 1;
+            if (names[code].equals(name)) return code;
+            slot = (slot + 1) & mask;
+        }
+        if (nameCount == names.length) {
+            names = Arrays.copyOf(names, nameCount * 2);
+            nameKeys = Arrays.copyOf(nameKeys, nameCount * 2);
+        }
+        names[nameCount] = name;
+        nameKeys[nameCount] = key;
+        nameSlots[slot] = ++nameCount;
+        if (nameCount * 2 > nameSlots.length) rehashNames(nameSlots.length * 2);
+        return nameCount - 1;
+    }
+
+    private void rehashNames(int capacity) {
+        nameSlots = new int[capacity];
+        for (int code = 0; code < nameCount; code++) {
+            int slot = LocationNameIndex.spread(names[code].hashCode(), 32 - Integer.numberOfTrailingZeros(capacity));
+            while (nameSlots[slot] != 0) slot = (slot + 1) & (capacity - 1);
+            nameSlots[slot] = code + 1;
+        }
+    }
+
+    private void grow(int capacity) {
+        nameCodes = Arrays.copyOf(nameCodes, capacity);
+        types = Arrays.copyOf(types, capacity);
+        risks = Arrays.copyOf(risks, capacity);
+        faultDistances = Arrays.copyOf(faultDistances, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+    }
+}
+
+// Computed risk: a 0-100 score from quake history, last magnitude and fault
+// proximity, and the level it maps to. Scores sit in one float array indexed by
+// location id. scoreAll() fills a range of ids with a fork-join pass (bulk loads,
+// or re-scoring the whole country); rescore() refreshes a single location after
+// it is added or hit by a quake.
+class RiskScorer {
+    static final float MODERATE_FROM = 35f;
+    static final float HIGH_FROM = 60f;
+    private static final int SPLIT_IDS = 8_192;
+    private static final double QUAKE_SATURATION = Math.log1p(100);
+
+    private final LocationRows rows;
+    private float[] scores = new float[64];
+
+    public RiskScorer(LocationRows rows) {
+        this.rows = rows;
+    }
+
+    // 40 points for quake history (log scale, saturating at 100 quakes), 40 for
+    // magnitude between 3 and 8, 20 for fault proximity (halving every ~17 km).
+    static float score(int quakes, double magnitude, double faultDistanceKm) {
+        double history = Math.min(1, Math.log1p(Math.max(0, quakes)) / QUAKE_SATURATION);
+        double strength = Math.min(1, Math.max(0, (magnitude - 3) / 5));
+        double proximity = Math.exp(-Math.max(0, faultDistanceKm) / 25);
+        return (float) (40 * history + 40 * strength + 20 * proximity);
+    }
+
+    static RiskLevel levelOf(float score) {
+        if (score >= HIGH_FROM) return RiskLevel.HIGH;
+        return score >= MODERATE_FROM ? RiskLevel.MODERATE : RiskLevel.LOW;
+    }
+
+    public float score(int id) { return scores[id]; }
+    public RiskLevel level(int id) { return levelOf(scores[id]); }
+
+    public void rescore(int id) {
+        ensureCapacity(id + 1);
+        scores[id] = score(rows.quakes(id), rows.magnitude(id), rows.faultDistance(id));
+    }
+
+    public void scoreAll(int from, int to) {
+        ensureCapacity(to);
+        if (to - from <= SPLIT_IDS) scoreRange(from, to);
+        else ForkJoinPool.commonPool().invoke(new ScoreTask(from, to));
+    }
+
+    private void scoreRange(int from, int to) {
+        float[] out = scores;
+        for (int id = from; id < to; id++) out[id] = score(rows.quakes(id), rows.magnitude(id), rows.faultDistance(id));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > scores.length) scores = Arrays.copyOf(scores, Math.max(capacity, scores.length * 2));
+    }
+
+    @SuppressWarnings("serial") // never serialized; only run on the fork-join pool
+    private class ScoreTask extends RecursiveAction {
+        private final int from, to;
+
+        ScoreTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_IDS) {
+                scoreRange(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ScoreTask(from, mid), new ScoreTask(mid, to));
+        }
+    }
+}
+
+// Top-K rankings over the location rows.
+enum Ranking {
+    MAGNITUDE("Highest last magnitude"),
+    QUAKES("Most historical earthquakes"),
+    FAULT_PROXIMITY("Closest to a fault line"),
+    RISK_SCORE("Highest computed risk score");
+
+    private final String label;
+
+    Ranking(String label) { this.label = label; }
+
+    public String getLabel() { return label; }
+}
+
+// Tournament tree ranking location ids by a key read from the rows (higher
+// ranks first, lower id on ties). Leaves are ids, each inner node holds the
+// better of its two children, so the root is the best location. update(id)
+// after a location is added or changes costs O(log n); top(k) expands the tree
+// best-first from the root with a small heap, O(k log k) after the first pop.
+class LocationRanking {
+    private final IntToDoubleFunction key;
+    private int[] tree = new int[128];
+    private int leaves = 64;
+
+    public LocationRanking(IntToDoubleFunction key) {
+        this.key = key;
+        Arrays.fill(tree, -1);
+    }
+
+    public void update(int id) {
+        if (id >= leaves) {
+            rebuild(id + 1);
+            return;
+        }
+        int node = leaves + id;
+        tree[node] = id;
+        for (node >>>= 1; node > 0; node >>>= 1) tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+    }
+
+    // Recomputes the whole tree for ids [0, size) in O(n); used after bulk loads.
+    public void rebuild(int size) {
+        if (size > leaves) {
+            leaves = Integer.highestOneBit(size - 1) << 1;
+            tree = new int[2 * leaves];
+        }
+        for (int id = 0; id < leaves; id++) tree[leaves + id] = id < size ? id : -1;
+        for (int node = leaves - 1; node > 0; node--) tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+    }
+
+    public int[] top(int k) {
+        int[] result = new int[k];
+        int count = 0;
+        // Heap of tree nodes ordered by the id each one holds; every pop adds at most two.
+        int[] heap = new int[2 * k + 1];
+        int heapSize = 0;
+        if (k > 0 && tree[1] >= 0) heap[heapSize++] = 1;
+        while (heapSize > 0 && count < k) {
+            int node = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize);
+            // Follow the winner down to its leaf, queueing the losing siblings on the way.
+            while (node < leaves) {
+                int winner = tree[2 * node] == tree[node] ? 2 * node : 2 * node + 1;
+                int loser = winner ^ 1;
+                if (tree[loser] >= 0) {
+                    if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+                    heap[heapSize] = loser;
+                    siftUp(heap, heapSize++);
+                }
+                node = winner;
+            }
+            result[count++] = tree[node];
+        }
+        return count == k ? result : Arrays.copyOf(result, count);
+    }
+
+    private int better(int a, int b) {
+        if (a < 0) return b;
+        if (b < 0) return a;
+        return beats(a, b) ? a : b;
+    }
+
+    private boolean beats(int a, int b) {
+        int cmp = Double.compare(key.applyAsDouble(a), key.applyAsDouble(b));
+        return cmp > 0 || (cmp == 0 && a < b);
+    }
+
+    private void siftUp(int[] heap, int i) {
+        int node = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!beats(tree[node], tree[heap[parent]])) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = node;
+    }
+
+    private void siftDown(int[] heap, int size) {
+        if (size == 0) return;
+        int node = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && beats(tree[heap[child + 1]], tree[heap[child]])) child++;
+            if (!beats(tree[heap[child]], tree[node])) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = node;
+    }
+}
+
+// Alphabetical location store. Every location gets a stable id (its insertion
+// position) and a collation key computed once; `order` holds the ids sorted by
+// key, so comparisons never allocate. Single inserts binary-search their slot
+// and shift one int array; addAll() appends a batch and sorts it once.
+// Ids are also bucketed by risk level, each bucket kept in key order, located
+// locations are registered in a spatial grid, and every location carries a
+// computed risk score and sits in the top-K rankings.
+//
+// The store is safe to share between threads. Writers that change the shape
+// of the rows (add, addAll, loadSorted) are serialized by a StampedLock. Short
+// queries run as optimistic reads: they read without locking, then validate the
+// stamp, and only if a writer got in between (or moved an array underneath them
+// and the read failed) do they run again under the read lock. Scans that call
+// back into the caller hold the read lock throughout, so visitors see each row
+// exactly once.
+// recordQuake() takes neither: the rows update their counters atomically, and
+// scores and rankings are refreshed under their own small lock (`stats`), so a
+// long scan or report holding the read lock never stalls quake ingestion.
+// Shape writers take `stats` inside the write lock, never the other way round.
+class LocationStore implements Iterable<Location> {
+    // Bulk reader over the rows and `count` ids in alphabetical order.
+    public interface RowsReader {
+        void read(LocationRows rows, int[] order, int count) throws IOException;
+    }
+
+    // Bulk loader that appends rows, normally already in key order, straight to the rows.
+    public interface RowsLoader {
+        void load(LocationRows rows);
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private final LocationRows rows;
+    private int[] order = new int[64];
+    private int size;
+    private final LocationNameIndex nameIndex;
+    private final EnumMap<RiskLevel, IntList> byRisk = new EnumMap<>(RiskLevel.class);
+    private final LocationGrid grid = new LocationGrid(0.25);
+    private final RiskScorer scorer;
+    private final EnumMap<Ranking, LocationRanking> rankings = new EnumMap<>(Ranking.class);
+    private final Object stats = new Object();
+
+    public LocationStore() {
+        this(new ObjectLocationRows());
+    }
+
+    public LocationStore(LocationRows rows) {
+        this.rows = rows;
+        this.nameIndex = new LocationNameIndex(rows);
+        this.scorer = new RiskScorer(rows);
+        rankings.put(Ranking.MAGNITUDE, new LocationRanking(rows::magnitude));
+        rankings.put(Ranking.QUAKES, new LocationRanking(rows::quakes));
+        rankings.put(Ranking.FAULT_PROXIMITY, new LocationRanking(id -> -rows.faultDistance(id)));
+        rankings.put(Ranking.RISK_SCORE, new LocationRanking(scorer::score));
+        for (RiskLevel risk : RiskLevel.values()) byRisk.put(risk, new IntList());
+    }
+
+    public int size() { return optimisticRead(() -> size); }
+    public Location get(int id) { return optimisticRead(() -> rows.get(id)); }
+
+    public int add(Location loc) {
+        String key = LocationNameIndex.normalize(loc.getName());
+        long stamp = lock.writeLock();
+        try {
+            return insert(loc, key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int insert(Location loc, String key) {
+        int id = append(loc, key);
+        int rank = upperBound(key);
+        System.arraycopy(order, rank, order, rank + 1, size - 1 - rank);
+        order[rank] = id;
+        nameIndex.put(key, id);
+        IntList bucket = byRisk.get(loc.getRisk());
+        bucket.insert(upperBound(bucket, key), id);
+        refresh(id);
+        return id;
+    }
+
+    public void addAll(Collection<? extends Location> batch) {
+        Location[] locations = batch.toArray(new Location[0]);
+        String[] keys = new String[locations.length];
+        IntStream.range(0, locations.length).parallel()
+                .forEach(i -> keys[i] = LocationNameIndex.normalize(locations[i].getName()));
+        long stamp = lock.writeLock();
+        try {
+            appendBatch(locations, keys);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void appendBatch(Location[] locations, String[] keys) {
+        int first = size;
+        for (int i = 0; i < locations.length; i++) append(locations[i], keys[i]);
+        if (size == first) return;
+        int[] added = new int[size - first];
+        for (int i = 0; i < added.length; i++) added[i] = first + i;
+        sortByKey(added, new int[added.length], 0, added.length);
+        nameIndex.ensureCapacity(size);
+
+        // Merge the sorted batch into the existing order, existing ids first on ties.
+        int[] merged = new int[order.length];
+        int i = 0, j = 0, k = 0;
+        while (i < first && j < added.length)
+            merged[k++] = rows.key(added[j]).compareTo(rows.key(order[i])) < 0 ? added[j++] : order[i++];
+        while (i < first) merged[k++] = order[i++];
+        while (j < added.length) merged[k++] = added[j++];
+        order = merged;
+        for (int id : added) nameIndex.put(rows.key(id), id);
+
+        // Rebuild the risk buckets in one ordered pass rather than inserting one by one.
+        for (IntList bucket : byRisk.values()) bucket.clear();
+        for (int rank = 0; rank < size; rank++) byRisk.get(rows.risk(order[rank])).add(order[rank]);
+        synchronized (stats) {
+            scorer.scoreAll(first, size);
+            for (LocationRanking ranking : rankings.values()) ranking.rebuild(size);
+        }
+    }
+
+    // Fills an empty store from rows appended in key order (a snapshot), with
+    // no Location objects, name normalization or sort on the way. Rows that
+    // turn out not to be in order are sorted once.
+    public void loadSorted(RowsLoader loader) {
+        long stamp = lock.writeLock();
+        try {
+            if (size != 0) throw new IllegalStateException("loadSorted() needs an empty store.");
+            loader.load(rows);
+            int count = rows.size();
+            if (order.length < count) order = new int[count];
+            boolean sorted = true;
+            for (int id = 0; id < count; id++) {
+                order[id] = id;
+                if (id > 0 && rows.key(id - 1).compareTo(rows.key(id)) > 0) sorted = false;
+                double latitude = rows.latitude(id), longitude = rows.longitude(id);
+                if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) grid.add(id, latitude, longitude);
+            }
+            size = count;
+            if (!sorted) sortByKey(order, new int[count], 0, count);
+            nameIndex.ensureCapacity(size);
+            for (int rank = 0; rank < size; rank++) {
+                int id = order[rank];
+                nameIndex.put(rows.key(id), id);
+                byRisk.get(rows.risk(id)).add(id);
+            }
+            synchronized (stats) {
+                scorer.scoreAll(0, size);
+                for (LocationRanking ranking : rankings.values()) ranking.rebuild(size);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public float riskScore(int id) { return optimisticRead(() -> scorer.score(id)); }
+    public RiskLevel computedRisk(int id) { return optimisticRead(() -> scorer.level(id)); }
+
+    // Re-scores every location in one parallel pass. The read lock keeps the
+    // row count fixed; quakes recorded meanwhile wait on `stats`.
+    public void rescoreAll() {
+        long stamp = lock.readLock();
+        try {
+            synchronized (stats) {
+                scorer.scoreAll(0, size);
+                rankings.get(Ranking.RISK_SCORE).rebuild(size);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int countByComputedRisk(RiskLevel risk) {
+        return optimisticRead(() -> {
+            int count = 0;
+            for (int id = 0; id < size; id++) if (scorer.level(id) == risk) count++;
+            return count;
+        });
+    }
+
+    public int countByRisk(RiskLevel risk) {
+        return optimisticRead(() -> byRisk.get(risk).size());
+    }
+
+    // Alphabetical scans that read names and risk levels straight from the rows.
+    public void forEachRow(BiConsumer<String, RiskLevel> visitor) {
+        long stamp = lock.readLock();
+        try {
+            for (int rank = 0; rank < size; rank++) {
+                int id = order[rank];
+                visitor.accept(rows.name(id), rows.risk(id));
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void forEachRowWithRisk(RiskLevel risk, BiConsumer<String, RiskLevel> visitor) {
+        long stamp = lock.readLock();
+        try {
+            IntList bucket = byRisk.get(risk);
+            for (int i = 0; i < bucket.size(); i++) visitor.accept(rows.name(bucket.get(i)), risk);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Location find(String name) {
+        String key = LocationNameIndex.normalize(name);
+        return optimisticRead(() -> {
+            int id = nameIndex.get(key);
+            return id < 0 ? null : rows.get(id);
+        });
+    }
+
+    // Id of the location with this name, or -1.
+    public int idOf(String name) {
+        String key = LocationNameIndex.normalize(name);
+        return optimisticRead(() -> nameIndex.get(key));
+    }
+
+    // Lock-free on the rows; only the score and ranking refresh is serialized.
+    // The id must already be in the store (from idOf or add).
+    public void recordQuake(int id, double magnitude) {
+        rows.recordQuake(id, magnitude);
+        refresh(id);
+    }
+
+    private void refresh(int id) {
+        synchronized (stats) {
+            scorer.rescore(id);
+            for (LocationRanking ranking : rankings.values()) ranking.update(id);
+        }
+    }
+
+    // The k best locations by the ranking, best first.
+    public List<Location> top(Ranking ranking, int k) {
+        return optimisticRead(() -> {
+            int[] ids;
+            synchronized (stats) {
+                ids = rankings.get(ranking).top(Math.min(k, size));
+            }
+            return toLocations(ids);
+        });
+    }
+
+    public List<Location> startingWith(String prefix, int limit) {
+        String key = LocationNameIndex.normalize(prefix);
+        return optimisticRead(() -> {
+            List<Location> matches = new ArrayList<>();
+            for (int rank = lowerBound(key); rank < size && matches.size() < limit; rank++) {
+                int id = order[rank];
+                if (!rows.key(id).startsWith(key)) break;
+                matches.add(rows.get(id));
+            }
+            return matches;
+        });
+    }
+
+    // The grid's hash map is not safe to read while a writer resizes it, so
+    // spatial queries take the read lock instead of reading optimistically.
+    public List<Location> within(double latitude, double longitude, double radiusKm) {
+        long stamp = lock.readLock();
+        try {
+            return toLocations(grid.within(latitude, longitude, radiusKm));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Ids of the located locations within the radius, nearest first.
+    public int[] idsWithin(double latitude, double longitude, double radiusKm) {
+        long stamp = lock.readLock();
+        try {
+            return grid.within(latitude, longitude, radiusKm);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public List<Location> nearest(double latitude, double longitude, int k) {
+        long stamp = lock.readLock();
+        try {
+            return toLocations(grid.nearest(latitude, longitude, k));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Scenario model inputs for every location, indexed by id.
+    public ScenarioSimulator.Exposure exposure() {
+        return optimisticRead(() -> {
+            int[] quakes = new int[size];
+            float[] faultDistances = new float[size];
+            for (int id = 0; id < size; id++) {
+                quakes[id] = rows.quakes(id);
+                faultDistances[id] = (float) rows.faultDistance(id);
+            }
+            return new ScenarioSimulator.Exposure(quakes, faultDistances);
+        });
+    }
+
+    // Hands the rows to the reader under the read lock, so it sees one
+    // consistent store while writers wait. The reader may fan out to other
+    // threads as long as they finish before it returns.
+    public void read(RowsReader reader) throws IOException {
+        long stamp = lock.readLock();
+        try {
+            reader.read(rows, order, size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Every location in alphabetical order, as of one consistent moment.
+    public List<Location> toList() {
+        long stamp = lock.readLock();
+        try {
+            List<Location> all = new ArrayList<>(size);
+            for (int rank = 0; rank < size; rank++) all.add(rows.get(order[rank]));
+            return all;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Runs a side-effect-free query without locking and keeps its result if no
+    // writer ran meanwhile. A query racing a writer can trip over a half-grown
+    // array; that failure is discarded the same way and the query re-run under
+    // the read lock.
+    private <T> T optimisticRead(Supplier<T> query) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = query.get();
+                if (lock.validate(stamp)) return result;
+            } catch (RuntimeException raced) {
+                if (lock.validate(stamp)) throw raced;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return query.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private List<Location> toLocations(int[] ids) {
+        List<Location> locations = new ArrayList<>(ids.length);
+        for (int id : ids) locations.add(rows.get(id));
+        return locations;
+    }
+
+    @Override
+    // Walks the locations present when iteration starts, in alphabetical order.
+    public Iterator<Location> iterator() {
+        int[] ids = optimisticRead(() -> Arrays.copyOf(order, size));
+        return new Iterator<>() {
+            private int rank;
+            @Override public boolean hasNext() { return rank < ids.length; }
+            @Override public Location next() {
+                if (rank >= ids.length) throw new NoSuchElementException();
+                return get(ids[rank++]);
+            }
+        };
+    }
+
+    private int append(Location loc, String key) {
+        if (size == order.length) order = Arrays.copyOf(order, size * 2);
+        int id = rows.append(loc, key);
+        if (loc.hasCoordinates()) grid.add(id, loc.getLatitude(), loc.getLongitude());
+        size++;
+        return id;
+    }
+
+    // First rank whose key is >= key.
+    private int lowerBound(String key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rows.key(order[mid]).compareTo(key) < 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    // First rank whose key is > key, ignoring the id being inserted at the end.
+    private int upperBound(String key) {
+        int lo = 0, hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rows.key(order[mid]).compareTo(key) <= 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private int upperBound(IntList ids, String key) {
+        int lo = 0, hi = ids.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rows.key(ids.get(mid)).compareTo(key) <= 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    // Stable merge sort of ids by key.
+    private void sortByKey(int[] ids, int[] scratch, int from, int to) {
+        if (to - from < 2) return;
+        int mid = (from + to) >>> 1;
+        sortByKey(ids, scratch, from, mid);
+        sortByKey(ids, scratch, mid, to);
+        if (rows.key(ids[mid - 1]).compareTo(rows.key(ids[mid])) <= 0) return;
+        System.arraycopy(ids, from, scratch, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to)
+            ids[k++] = rows.key(scratch[j]).compareTo(rows.key(scratch[i])) < 0 ? scratch[j++] : scratch[i++];
+        while (i < mid) ids[k++] = scratch[i++];
+        while (j < to) ids[k++] = scratch[j++];
+    }
+}
+
+// Bulk loader for CSV/TSV location files, one location per line:
+//   name,type,risk,quakes,magnitude,faultDistanceKm[,latitude,longitude]
+// The calling thread streams the file into fixed-size chunks of lines that a
+// worker pool parses in parallel. Chunks are collected in file order, so error
+// line numbers are exact, and accepted rows reach the sink as one batch (so the
+// store sorts once).
+class LocationImporter {
+    private static final int CHUNK_LINES = 16_384;
+    private static final int MAX_REPORTED_ERRORS = 50;
+    private static final int FIELDS = 6;
+    private static final int FIELDS_WITH_COORDINATES = 8;
+
+    public static class Report {
+        private int imported;
+        private int rejected;
+        private final List<String> errors = new ArrayList<>();
+
+        public int getImported() { return imported; }
+        public int getRejected() { return rejected; }
+        public List<String> getErrors() { return errors; }
+
+        void accept() { imported++; }
+
+        void reject(String error) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) errors.add(error);
+        }
+    }
+
+    private static class Chunk {
+        final long firstLine;
+        final List<String> lines;
+        final List<Location> parsed = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        Chunk(long firstLine, List<String> lines) {
+            this.firstLine = firstLine;
+            this.lines = lines;
+        }
+    }
+
+    public Report importFile(Path file, Consumer<List<Location>> sink) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        List<Location> accepted = new ArrayList<>();
+        Report report = new Report();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) return report;
+            char delimiter = line.indexOf('\t') >= 0 ? '\t' : ',';
+            long lineNumber = 1;
+            if (isHeader(line, delimiter)) {
+                line = reader.readLine();
+                lineNumber++;
+            }
+
+            while (line != null) {
+                List<String> lines = new ArrayList<>(CHUNK_LINES);
+                long firstLine = lineNumber;
+                while (line != null && lines.size() < CHUNK_LINES) {
+                    lines.add(line);
+                    line = reader.readLine();
+                    lineNumber++;
+                }
+                Chunk chunk = new Chunk(firstLine, lines);
+                inFlight.add(pool.submit(() -> parse(chunk, delimiter)));
+                // Bound the lines held in memory while the reader runs ahead.
+                if (inFlight.size() >= threads * 2) collect(inFlight.poll(), accepted, report);
+            }
+            while (!inFlight.isEmpty()) collect(inFlight.poll(), accepted, report);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        sink.accept(accepted);
+        report.imported = accepted.size();
+        return report;
+    }
+
+    // A header names the first column "name" and has no number in the numeric
+    // columns, so a place such as "Namerikawa" on the first line is still data.
+    private static boolean isHeader(String line, char delimiter) {
+        List<String> fields = new ArrayList<>(FIELDS_WITH_COORDINATES);
+        split(line, delimiter, fields);
+        if (fields.size() <= 3 || !fields.get(0).equalsIgnoreCase("name")) return false;
+        for (int i = 3; i < fields.size(); i++) {
+            try {
+                Double.parseDouble(fields.get(i));
+                return false;
+            } catch (NumberFormatException e) {
+                // not a number, as expected of a column name
+            }
+        }
+        return true;
+    }
+
+    private void collect(Future<Chunk> pending, List<Location> accepted, Report report) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted.");
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed: " + e.getCause().getMessage(), e.getCause());
+        }
+        accepted.addAll(chunk.parsed);
+        for (String error : chunk.errors) report.reject(error);
+    }
+
+    private static Chunk parse(Chunk chunk, char delimiter) {
+        List<String> fields = new ArrayList<>(FIELDS);
+        for (int i = 0; i < chunk.lines.size(); i++) {
+            String line = chunk.lines.get(i);
+            if (line.isBlank()) continue;
+            try {
+                chunk.parsed.add(parseLine(line, delimiter, fields));
+            } catch (InvalidRiskLevelException | IllegalArgumentException e) {
+                chunk.errors.add("Line " + (chunk.firstLine + i) + ": " + e.getMessage());
+            }
+        }
+        return chunk;
+    }
+
+    private static Location parseLine(String line, char delimiter, List<String> fields) throws InvalidRiskLevelException {
+        split(line, delimiter, fields);
+        if (fields.size() != FIELDS && fields.size() != FIELDS_WITH_COORDINATES)
+            throw new IllegalArgumentException("Expected " + FIELDS + " or " + FIELDS_WITH_COORDINATES
+                    + " fields but found " + fields.size() + ".");
+        String name = fields.get(0);
+        if (name.isEmpty()) throw new IllegalArgumentException("Name cannot be empty.");
+        RiskLevel risk = RiskLevel.parse(fields.get(2));
+        int quakes = parseNumber(fields.get(3), "historical quakes", true).intValue();
+        double magnitude = parseNumber(fields.get(4), "magnitude", false).doubleValue();
+        double distance = parseNumber(fields.get(5), "fault distance", false).doubleValue();
+        if (quakes < 0 || magnitude < 0 || distance < 0)
+            throw new IllegalArgumentException("Numbers cannot be negative.");
+        double latitude = Double.NaN, longitude = Double.NaN;
+        if (fields.size() == FIELDS_WITH_COORDINATES) {
+            latitude = parseNumber(fields.get(6), "latitude", false).doubleValue();
+            longitude = parseNumber(fields.get(7), "longitude", false).doubleValue();
+            if (!LocationGrid.isValid(latitude, longitude))
+                throw new IllegalArgumentException("Coordinates out of range.");
+        }
+
+        String type = fields.get(1);
+        if (type.equalsIgnoreCase("City"))
+            return new CityLocation(name, risk, quakes, magnitude, distance, latitude, longitude);
+        if (type.equalsIgnoreCase("Province"))
+            return new ProvinceLocation(name, risk, quakes, magnitude, distance, latitude, longitude);
+        throw new IllegalArgumentException("Type must be City or Province, got '" + type + "'.");
+    }
+
+    private static Number parseNumber(String text, String field, boolean integer) {
+        try {
+            return integer ? Integer.valueOf(Integer.parseInt(text)) : Double.valueOf(Double.parseDouble(text));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + field + " '" + text + "'.");
+        }
+    }
+
+    // Splits one line into trimmed fields; double quotes may wrap a field containing the delimiter.
+    static void split(String line, char delimiter, List<String> fields) {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == delimiter && !quoted) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+    }
+}
+
+// Binary snapshot of a LocationStore, written column by column in alphabetical
+// order:
+//   magic, version, count, nameBytes, keyBytes, journal generation, journal offset,
+//   quakes int[], magnitude/faultDistance/latitude/longitude double[],
+//   nameEnd int[], keyEnd int[], type byte[], risk byte[], UTF-8 names, UTF-8 keys
+// Loading is eager: the file is read into memory in one go, checked, and every
+// row is copied into the store's rows, decoding one String per name and key.
+// What it saves over an import is the text parsing, name normalizing,
+// Location objects and the sort. The journal position says which journaled
+// additions the snapshot already holds.
+class LocationSnapshot {
+    private static final int MAGIC = 0x51475331; // "QGS1"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 5 * 4 + 2 * 8;
+    private static final int ROW_BYTES = 4 + 4 * 8 + 4 + 4 + 1 + 1;
+    private static final byte CITY = 0, PROVINCE = 1;
+
+    public static void write(Path file, LocationStore store, LocationJournal.Position journal) throws IOException {
+        ByteBuffer[] written = new ByteBuffer[1];
+        store.read((rows, order, count) -> {
+            int[] quakes = new int[count];
+            double[][] numbers = new double[4][count];
+            int[] nameEnds = new int[count];
+            int[] keyEnds = new int[count];
+            byte[] types = new byte[count];
+            byte[] risks = new byte[count];
+            ByteArrayOutputStream names = new ByteArrayOutputStream(count * 16);
+            ByteArrayOutputStream keys = new ByteArrayOutputStream(count * 16);
+            for (int row = 0; row < count; row++) {
+                int id = order[row];
+                quakes[row] = rows.quakes(id);
+                numbers[0][row] = rows.magnitude(id);
+                numbers[1][row] = rows.faultDistance(id);
+                numbers[2][row] = rows.latitude(id);
+                numbers[3][row] = rows.longitude(id);
+                types[row] = rows.isProvince(id) ? PROVINCE : CITY;
+                risks[row] = (byte) rows.risk(id).ordinal();
+                names.writeBytes(rows.name(id).getBytes(StandardCharsets.UTF_8));
+                nameEnds[row] = names.size();
+                keys.writeBytes(rows.key(id).getBytes(StandardCharsets.UTF_8));
+                keyEnds[row] = keys.size();
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * ROW_BYTES + names.size() + keys.size());
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(names.size()).putInt(keys.size())
+                    .putLong(journal.generation).putLong(journal.offset);
+            buffer.asIntBuffer().put(quakes);
+            buffer.position(buffer.position() + count * 4);
+            for (double[] column : numbers) {
+                buffer.asDoubleBuffer().put(column);
+                buffer.position(buffer.position() + count * 8);
+            }
+            for (int[] ends : new int[][] {nameEnds, keyEnds}) {
+                buffer.asIntBuffer().put(ends);
+                buffer.position(buffer.position() + count * 4);
+            }
+            buffer.put(types).put(risks).put(names.toByteArray()).put(keys.toByteArray()).flip();
+            written[0] = buffer;
+        });
+        ByteBuffer buffer = written[0];
+
+        // Write beside the target and rename, so a crash never leaves half a snapshot.
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Loads the snapshot into an empty store and returns the journal position
+    // it covers, or null when there is no snapshot yet. Nothing reaches the
+    // store unless the whole file checks out.
+    public static LocationJournal.Position loadInto(Path file, LocationStore store) throws IOException {
+        if (!Files.exists(file)) return null;
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Snapshot larger than 2 GB: " + file);
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("Snapshot is truncated or corrupt: " + file);
+            }
+            buffer.flip();
+        }
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+            throw new IOException("Not a QuakeGuard snapshot: " + file);
+        int count = buffer.getInt();
+        int nameBytes = buffer.getInt();
+        int keyBytes = buffer.getInt();
+        LocationJournal.Position journal = new LocationJournal.Position(buffer.getLong(), buffer.getLong());
+        if (count < 0 || nameBytes < 0 || keyBytes < 0
+                || buffer.remaining() != (long) count * ROW_BYTES + nameBytes + keyBytes)
+            throw new IOException("Snapshot is truncated or corrupt: " + file);
+
+        // Column offsets; rows are then read in place.
+        int quakes = HEADER_BYTES;
+        int numbers = quakes + count * 4; // four double columns
+        int nameEnds = numbers + 4 * count * 8;
+        int keyEnds = nameEnds + count * 4;
+        int types = keyEnds + count * 4;
+        int risks = types + count;
+        int names = risks + count;
+        int keys = names + nameBytes;
+
+        RiskLevel[] levels = RiskLevel.values();
+        int nameStart = 0, keyStart = 0;
+        for (int i = 0; i < count; i++) {
+            int nameEnd = buffer.getInt(nameEnds + i * 4), keyEnd = buffer.getInt(keyEnds + i * 4);
+            byte risk = buffer.get(risks + i);
+            if (nameEnd < nameStart || nameEnd > nameBytes || keyEnd < keyStart || keyEnd > keyBytes
+                    || risk < 0 || risk >= levels.length)
+                throw new IOException("Snapshot is truncated or corrupt: " + file);
+            nameStart = nameEnd;
+            keyStart = keyEnd;
+        }
+
+        byte[] data = buffer.array();
+        store.loadSorted(rows -> {
+            int nameFrom = 0, keyFrom = 0;
+            for (int i = 0; i < count; i++) {
+                int nameEnd = buffer.getInt(nameEnds + i * 4), keyEnd = buffer.getInt(keyEnds + i * 4);
+                rows.appendRow(new String(data, names + nameFrom, nameEnd - nameFrom, StandardCharsets.UTF_8),
+                        new String(data, keys + keyFrom, keyEnd - keyFrom, StandardCharsets.UTF_8),
+                        buffer.get(types + i) == PROVINCE, levels[buffer.get(risks + i)], buffer.getInt(quakes + i * 4),
+                        buffer.getDouble(numbers + i * 8), buffer.getDouble(numbers + (count + i) * 8),
+                        buffer.getDouble(numbers + (2 * count + i) * 8), buffer.getDouble(numbers + (3 * count + i) * 8));
+                nameFrom = nameEnd;
+                keyFrom = keyEnd;
+            }
+        });
+        return journal;
+    }
+}
+
+// Append-only log of locations added since the last snapshot. The file starts
+// with a magic number and a generation; each record is type, risk, quakes,
+// four doubles, then the name as a length-prefixed UTF-8 string. A snapshot
+// stores the generation and offset it has folded in, and rotate() then starts
+// the next generation with an atomic replace, so a crash between the two only
+// means the covered records are skipped on replay instead of added twice.
+// Replay stops at the first incomplete record (a write cut short by a crash)
+// and trims it off the file so later appends stay readable. Methods are
+// synchronized so several operators can append through one journal.
+class LocationJournal {
+    private static final int MAGIC = 0x51474A31; // "QGJ1"
+    private static final int HEADER_BYTES = 4 + 8;
+    private static final byte CITY = 0, PROVINCE = 1;
+    private static final int FIXED_BYTES = 1 + 1 + 4 + 4 * 8 + 4;
+
+    // A point in the journal: records of `generation` before `offset`.
+    public static class Position {
+        public static final Position NONE = new Position(0, HEADER_BYTES);
+
+        final long generation;
+        final long offset;
+
+        Position(long generation, long offset) {
+            this.generation = generation;
+            this.offset = offset;
+        }
+    }
+
+    private final Path file;
+    private long generation = 1;
+    private long length = HEADER_BYTES; // end of the last complete record
+    private long entries;
+
+    public LocationJournal(Path file) {
+        this.file = file;
+    }
+
+    public synchronized long getEntries() { return entries; }
+
+    // Where the next record will go; a snapshot taken now covers everything before it.
+    public synchronized Position position() {
+        return new Position(generation, length);
+    }
+
+    // Adds the records the snapshot at `covered` (Position.NONE without one) does not hold yet.
+    public synchronized int replayInto(LocationStore store, Position covered) throws IOException {
+        entries = 0;
+        if (!Files.exists(file)) {
+            generation = covered.generation + 1;
+            length = HEADER_BYTES;
+            return 0;
+        }
+        List<Location> rows = new ArrayList<>();
+        RiskLevel[] levels = RiskLevel.values();
+        long fileSize = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (fileSize < HEADER_BYTES || in.readInt() != MAGIC) throw new IOException("Not a QuakeGuard journal: " + file);
+            generation = in.readLong();
+            long skip = generation == covered.generation ? covered.offset
+                    : generation < covered.generation ? Long.MAX_VALUE : HEADER_BYTES;
+            length = HEADER_BYTES;
+            while (true) {
+                try {
+                    byte type = in.readByte();
+                    byte risk = in.readByte();
+                    int quakes = in.readInt();
+                    double magnitude = in.readDouble();
+                    double distance = in.readDouble();
+                    double latitude = in.readDouble();
+                    double longitude = in.readDouble();
+                    int nameLength = in.readInt();
+                    if (risk < 0 || risk >= levels.length || nameLength < 0) break;
+                    byte[] nameBytes = new byte[nameLength];
+                    in.readFully(nameBytes);
+                    if (length >= skip) {
+                        String name = new String(nameBytes, StandardCharsets.UTF_8);
+                        rows.add(type == PROVINCE
+                                ? new ProvinceLocation(name, levels[risk], quakes, magnitude, distance, latitude, longitude)
+                                : new CityLocation(name, levels[risk], quakes, magnitude, distance, latitude, longitude));
+                    }
+                    length += FIXED_BYTES + nameLength;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        if (generation < covered.generation) {
+            // Left over from before the snapshot: all of it is in there already.
+            rotate(covered.generation + 1);
+            return 0;
+        }
+        if (length < fileSize) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+        }
+        store.addAll(rows);
+        entries = rows.size();
+        return rows.size();
+    }
+
+    public void append(Location loc) throws IOException {
+        appendAll(List.of(loc));
+    }
+
+    public synchronized void appendAll(Collection<? extends Location> locations) throws IOException {
+        if (locations.isEmpty()) return;
+        if (!Files.exists(file)) rotate(generation);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.APPEND), 1 << 16))) {
+            for (Location loc : locations) {
+                byte[] name = loc.getName().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(loc instanceof ProvinceLocation ? PROVINCE : CITY);
+                out.writeByte(loc.getRisk().ordinal());
+                out.writeInt(loc.getHistoricalQuakes());
+                out.writeDouble(loc.getLastMagnitude());
+                out.writeDouble(loc.getDistanceToFaultLineKm());
+                out.writeDouble(loc.getLatitude());
+                out.writeDouble(loc.getLongitude());
+                out.writeInt(name.length);
+                out.write(name);
+                length += FIXED_BYTES + name.length;
+            }
+        }
+        entries += locations.size();
+    }
+
+    // Called once a snapshot holds everything before position(): starts the
+    // next generation, empty.
+    public synchronized void rotate() throws IOException {
+        rotate(generation + 1);
+    }
+
+    private void rotate(long next) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeInt(MAGIC);
+            out.writeLong(next);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation = next;
+        length = HEADER_BYTES;
+        entries = 0;
+    }
+}
+
+// Live quake events, one per line:  name,magnitude[,time]
+// (time as accepted by QuakeCatalog.parseTime; arrival time if omitted).
+// A feed tails a growing file (like tail -f, starting at its current end) or
+// accepts line-oriented clients on a localhost port standing in for the seismic
+// network. Each source runs on its own daemon thread and applies events straight
+// to the store through recordQuake(), which never takes the store's lock, so
+// menu queries and reports do not hold up ingestion or the other way round.
+class QuakeEventFeed {
+    private static final long POLL_MILLIS = 100;
+
+    private final LocationStore store;
+    private final QuakeCatalog catalog;
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder unknown = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final List<Closeable> sources = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    public QuakeEventFeed(LocationStore store, QuakeCatalog catalog) {
+        this.store = store;
+        this.catalog = catalog;
+    }
+
+    public long getApplied() { return applied.sum(); }
+    public long getUnknown() { return unknown.sum(); }
+    public long getMalformed() { return malformed.sum(); }
+
+    public void tail(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        channel.position(channel.size());
+        sources.add(channel);
+        start("quake-feed-" + file.getFileName(), () -> tailLoop(channel));
+    }
+
+    public void listen(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        sources.add(server);
+        start("quake-feed-" + port, () -> {
+            while (running) {
+                try {
+                    Socket client = server.accept();
+                    sources.add(client);
+                    start("quake-feed-client", () -> readClient(client));
+                } catch (IOException e) {
+                    if (running) System.out.println("Quake feed error: " + e.getMessage());
+                    return;
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        running = false;
+        for (Closeable source : sources) {
+            try {
+                source.close();
+            } catch (IOException ignored) {
+                // Shutting down anyway.
+            }
+        }
+    }
+
+    // Reads whatever has been appended, hands complete lines to apply() and keeps
+    // a partial last line for the next round.
+    private void tailLoop(FileChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        try {
+            while (running) {
+                if (channel.size() < channel.position()) channel.position(0); // truncated or rotated
+                if (channel.read(buffer) <= 0) {
+                    Thread.sleep(POLL_MILLIS);
+                    continue;
+                }
+                buffer.flip();
+                int lineStart = 0;
+                for (int i = 0; i < buffer.limit(); i++) {
+                    if (buffer.get(i) != '\n') continue;
+                    apply(new String(buffer.array(), lineStart, i - lineStart, StandardCharsets.UTF_8));
+                    lineStart = i + 1;
+                }
+                buffer.position(lineStart);
+                buffer.compact();
+                if (!buffer.hasRemaining()) buffer.clear(); // a single line longer than the buffer is dropped
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (running) System.out.println("Quake feed error: " + e.getMessage());
+        }
+    }
+
+    private void readClient(Socket client) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while (running && (line = reader.readLine()) != null) apply(line);
+        } catch (IOException e) {
+            if (running) System.out.println("Quake feed client error: " + e.getMessage());
+        } finally {
+            sources.remove(client);
+        }
+    }
+
+    void apply(String line) {
+        if (line.isBlank()) return;
+        List<String> fields = new ArrayList<>(3);
+        LocationImporter.split(line, ',', fields);
+        double magnitude;
+        long time;
+        try {
+            if (fields.size() < 2 || fields.size() > 3) throw new IllegalArgumentException();
+            magnitude = Double.parseDouble(fields.get(1));
+            time = fields.size() == 3 ? QuakeCatalog.parseTime(fields.get(2)) : System.currentTimeMillis();
+        } catch (RuntimeException e) {
+            malformed.increment();
+            return;
+        }
+        int id = store.idOf(fields.get(0));
+        if (id < 0) {
+            unknown.increment();
+            return;
+        }
+        store.recordQuake(id, magnitude);
+        catalog.add(time, magnitude, id);
+        applied.increment();
+    }
+
+    private void start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
+
+// Catalog of individual quakes held as parallel primitive columns: time (epoch
+// millis), magnitude and location id, 16 bytes per event, sorted by time.
+// Events normally arrive in time order and are appended. Late events wait in a
+// small pending buffer and a bulk batch is sorted; either is merged in with one
+// backwards pass before the next query. Time windows are found by binary
+// search, so queries only touch the events inside the window. Writers take the
+// write lock; queries share the read lock.
+class QuakeCatalog {
+    private static final int MAGNITUDE_BINS = 100; // 0.0 .. 9.9 in steps of 0.1
+    private static final int MIN_FIT_EVENTS = 50;
+    private static final int MAX_PENDING = 4_096;
+    private static final double MILLIS_PER_YEAR = 365.25 * 24 * 3600 * 1000;
+
+    public interface EventVisitor {
+        void accept(long timeMillis, double magnitude, int locationId);
+    }
+
+    // Gutenberg-Richter relation log10 N(>=M) = a - bM, with a as a yearly rate.
+    public static class GutenbergRichter {
+        private final double a, b, bError, completeness;
+        private final int events;
+
+        GutenbergRichter(double a, double b, double bError, double completeness, int events) {
+            this.a = a;
+            this.b = b;
+            this.bError = bError;
+            this.completeness = completeness;
+            this.events = events;
+        }
+
+        public double getA() { return a; }
+        public double getB() { return b; }
+        public double getBError() { return bError; }
+        public double getCompleteness() { return completeness; }
+        public int getEvents() { return events; }
+
+        // Expected quakes per year at or above the magnitude.
+        public double yearlyRate(double magnitude) { return Math.pow(10, a - b * magnitude); }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private long[] times = new long[1024];
+    private float[] magnitudes = new float[1024];
+    private int[] locationIds = new int[1024];
+    private int size;
+    private final long[] pendingTimes = new long[MAX_PENDING];
+    private final float[] pendingMagnitudes = new float[MAX_PENDING];
+    private final int[] pendingIds = new int[MAX_PENDING];
+    private int pendingCount;
+    private final List<EventVisitor> listeners = new CopyOnWriteArrayList<>();
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size + pendingCount;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Listeners hear about every event added, after the catalog lock is released.
+    public void addListener(EventVisitor listener) {
+        listeners.add(listener);
+    }
+
+    public void add(long timeMillis, double magnitude, int locationId) {
+        long stamp = lock.writeLock();
+        try {
+            if (size == 0 || times[size - 1] <= timeMillis) {
+                ensureCapacity(size + 1);
+                times[size] = timeMillis;
+                magnitudes[size] = (float) magnitude;
+                locationIds[size++] = locationId;
+            } else {
+                if (pendingCount == MAX_PENDING) mergePending();
+                pendingTimes[pendingCount] = timeMillis;
+                pendingMagnitudes[pendingCount] = (float) magnitude;
+                pendingIds[pendingCount++] = locationId;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        for (EventVisitor listener : listeners) listener.accept(timeMillis, magnitude, locationId);
+    }
+
+    // Adds the first count events of the arrays, in any order.
+    public void addAll(long[] batchTimes, float[] batchMagnitudes, int[] batchIds, int count) {
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) sorted[i] = i;
+        sortByTime(batchTimes, sorted, new int[count], 0, count);
+
+        long stamp = lock.writeLock();
+        try {
+            merge(batchTimes, batchMagnitudes, batchIds, sorted, count);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        for (EventVisitor listener : listeners)
+            for (int e : sorted) listener.accept(batchTimes[e], batchMagnitudes[e], batchIds[e]);
+    }
+
+    // Read lock on a catalog whose pending events have been merged in.
+    private long readLock() {
+        long stamp = lock.readLock();
+        if (pendingCount == 0) return stamp;
+        long write = lock.tryConvertToWriteLock(stamp);
+        if (write == 0) {
+            lock.unlockRead(stamp);
+            write = lock.writeLock();
+        }
+        mergePending();
+        return lock.tryConvertToReadLock(write);
+    }
+
+    private void mergePending() {
+        int[] sorted = new int[pendingCount];
+        for (int i = 0; i < pendingCount; i++) sorted[i] = i;
+        sortByTime(pendingTimes, sorted, new int[pendingCount], 0, pendingCount);
+        merge(pendingTimes, pendingMagnitudes, pendingIds, sorted, pendingCount);
+        pendingCount = 0;
+    }
+
+    // Merges events given in time order by `sorted` from the back, so existing
+    // events move at most once; ties keep existing events first.
+    private void merge(long[] batchTimes, float[] batchMagnitudes, int[] batchIds, int[] sorted, int count) {
+        ensureCapacity(size + count);
+        int i = size - 1, j = count - 1;
+        for (int k = size + count - 1; j >= 0; k--) {
+            if (i >= 0 && times[i] > batchTimes[sorted[j]]) {
+                times[k] = times[i];
+                magnitudes[k] = magnitudes[i];
+                locationIds[k] = locationIds[i--];
+            } else {
+                int e = sorted[j--];
+                times[k] = batchTimes[e];
+                magnitudes[k] = batchMagnitudes[e];
+                locationIds[k] = batchIds[e];
+            }
+        }
+        size += count;
+    }
+
+    // Visits events with fromMillis <= time < toMillis and magnitude in
+    // [minMagnitude, maxMagnitude], oldest first; locationId -1 means any.
+    public void forEach(long fromMillis, long toMillis, double minMagnitude, double maxMagnitude,
+            int locationId, EventVisitor visitor) {
+        long stamp = readLock();
+        try {
+            for (int e = lowerBound(fromMillis), end = lowerBound(toMillis); e < end; e++) {
+                float magnitude = magnitudes[e];
+                if (magnitude < minMagnitude || magnitude > maxMagnitude) continue;
+                if (locationId >= 0 && locationIds[e] != locationId) continue;
+                visitor.accept(times[e], magnitude, locationIds[e]);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int count(long fromMillis, long toMillis, double minMagnitude, double maxMagnitude, int locationId) {
+        int[] count = {0};
+        forEach(fromMillis, toMillis, minMagnitude, maxMagnitude, locationId, (time, magnitude, id) -> count[0]++);
+        return count[0];
+    }
+
+    // Fits the events of one location (or all, with -1) in the window from a
+    // 0.1-magnitude histogram: completeness magnitude by maximum curvature
+    // (+0.2), b by Aki's maximum likelihood estimate with Shi-Bolt error, a from
+    // the yearly count above completeness. Null with fewer than 50 usable events.
+    public GutenbergRichter fit(long fromMillis, long toMillis, int locationId) {
+        int[] histogram = new int[MAGNITUDE_BINS];
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        long stamp = readLock();
+        try {
+            for (int e = lowerBound(fromMillis), end = lowerBound(toMillis); e < end; e++) {
+                if (locationId >= 0 && locationIds[e] != locationId) continue;
+                histogram[Math.max(0, Math.min(MAGNITUDE_BINS - 1, Math.round(magnitudes[e] * 10)))]++;
+                first = Math.min(first, times[e]);
+                last = Math.max(last, times[e]);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        int peak = 0;
+        for (int bin = 1; bin < MAGNITUDE_BINS; bin++) if (histogram[bin] > histogram[peak]) peak = bin;
+        int completeBin = Math.min(MAGNITUDE_BINS - 1, peak + 2);
+        long events = 0;
+        double sum = 0, sumSquares = 0;
+        for (int bin = completeBin; bin < MAGNITUDE_BINS; bin++) {
+            double magnitude = bin / 10.0;
+            events += histogram[bin];
+            sum += histogram[bin] * magnitude;
+            sumSquares += histogram[bin] * magnitude * magnitude;
+        }
+        if (events < MIN_FIT_EVENTS) return null;
+
+        double completeness = completeBin / 10.0;
+        double mean = sum / events;
+        double excess = mean - (completeness - 0.05);
+        if (excess <= 0) return null;
+        double b = Math.log10(Math.E) / excess;
+        double variance = Math.max(0, sumSquares - events * mean * mean) / (events * (events - 1.0));
+        double bError = 2.3 * b * b * Math.sqrt(variance);
+        long span = fromMillis != Long.MIN_VALUE && toMillis != Long.MAX_VALUE ? toMillis - fromMillis : last - first;
+        double years = Math.max(span / MILLIS_PER_YEAR, 1 / 365.25);
+        double a = Math.log10(events / years) + b * completeness;
+        return new GutenbergRichter(a, b, bError, completeness, (int) events);
+    }
+
+    // Reads "time,location,magnitude" lines (comma or tab separated, optional
+    // header). Events for locations not in the store are rejected.
+    public LocationImporter.Report importFile(Path file, LocationStore store) throws IOException {
+        LocationImporter.Report report = new LocationImporter.Report();
+        int capacity = 1 << 16, count = 0;
+        long[] batchTimes = new long[capacity];
+        float[] batchMagnitudes = new float[capacity];
+        int[] batchIds = new int[capacity];
+        List<String> fields = new ArrayList<>(3);
+        String lastName = null;
+        int lastId = -1;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) return report;
+            char delimiter = line.indexOf('\t') >= 0 ? '\t' : ',';
+            long lineNumber = 1;
+            if (line.toLowerCase(Locale.ROOT).startsWith("time")) {
+                line = reader.readLine();
+                lineNumber++;
+            }
+            for (; line != null; line = reader.readLine(), lineNumber++) {
+                if (line.isBlank()) continue;
+                LocationImporter.split(line, delimiter, fields);
+                try {
+                    if (fields.size() != 3) throw new IllegalArgumentException("Expected 3 fields but found " + fields.size() + ".");
+                    long time = parseTime(fields.get(0));
+                    double magnitude = Double.parseDouble(fields.get(2));
+                    // Catalog exports group events by place, so consecutive lines often repeat it.
+                    if (!fields.get(1).equals(lastName)) {
+                        lastName = fields.get(1);
+                        lastId = store.idOf(lastName);
+                    }
+                    if (lastId < 0) throw new IllegalArgumentException("Unknown location: " + lastName);
+                    if (count == capacity) {
+                        capacity *= 2;
+                        batchTimes = Arrays.copyOf(batchTimes, capacity);
+                        batchMagnitudes = Arrays.copyOf(batchMagnitudes, capacity);
+                        batchIds = Arrays.copyOf(batchIds, capacity);
+                    }
+                    batchTimes[count] = time;
+                    batchMagnitudes[count] = (float) magnitude;
+                    batchIds[count++] = lastId;
+                    report.accept();
+                } catch (RuntimeException e) {
+                    report.reject("Line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        addAll(batchTimes, batchMagnitudes, batchIds, count);
+        return report;
+    }
+
+    // Epoch millis, an ISO-8601 instant or offset date-time, or a local
+    // date-time or date taken as UTC.
+    static long parseTime(String text) {
+        if (!text.isEmpty() && text.chars().allMatch(Character::isDigit)) return Long.parseLong(text);
+        if (text.indexOf('T') < 0) return LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        try {
+            return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= times.length) return;
+        int grown = Math.max(capacity, times.length * 2);
+        times = Arrays.copyOf(times, grown);
+        magnitudes = Arrays.copyOf(magnitudes, grown);
+        locationIds = Arrays.copyOf(locationIds, grown);
+    }
+
+    // First event whose time is >= time.
+    private int lowerBound(long time) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    // Stable merge sort of event indexes by time.
+    private static void sortByTime(long[] keys, int[] events, int[] scratch, int from, int to) {
+        if (to - from < 2) return;
+        int mid = (from + to) >>> 1;
+        sortByTime(keys, events, scratch, from, mid);
+        sortByTime(keys, events, scratch, mid, to);
+        if (keys[events[mid - 1]] <= keys[events[mid]]) return;
+        System.arraycopy(events, from, scratch, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) events[k++] = keys[scratch[j]] < keys[scratch[i]] ? scratch[j++] : scratch[i++];
+        while (i < mid) events[k++] = scratch[i++];
+        while (j < to) events[k++] = scratch[j++];
+    }
+}
+
+// Expected aftershock counts per location, from the Reasenberg-Jones generic
+// model: a modified Omori decay in time with Gutenberg-Richter scaling in
+// magnitude, spread over nearby locations by a distance kernel that widens
+// with the shock's rupture size. The catalog listener only queues triggering
+// shocks; the next refresh() matches each one to the located locations within
+// reach (one grid query per shock) and keeps (location, shock, weight) pairs.
+// A full refresh evaluates the Omori integrals once per shock and sums each
+// location's pairs in a fork-join pass over location ranges, with the pairs
+// grouped by location in primitive arrays; it also drops shocks that have
+// decayed to nothing or left the trigger window, with their pairs. Between full
+// refreshes, newly arrived shocks are simply added on top of the last result.
+class AftershockForecaster {
+    private static final long DAY_MILLIS = 24L * 3600 * 1000;
+    static final long[] HORIZONS_MILLIS = {DAY_MILLIS, 7 * DAY_MILLIS, 30 * DAY_MILLIS};
+    static final String[] HORIZON_LABELS = {"24 hours", "7 days", "30 days"};
+    static final double TARGET_MAGNITUDE = 4.0;
+    private static final double TRIGGER_MAGNITUDE = 4.5;
+    private static final long TRIGGER_WINDOW_MILLIS = 365 * DAY_MILLIS;
+    private static final long REFRESH_MILLIS = 5 * 60 * 1000;
+    private static final double A = -1.67, B = 0.91, P = 1.08, C_DAYS = 0.05;
+    private static final double MIN_WEIGHT = 1e-3;
+    private static final double MIN_EXPECTED = 1e-4; // over the longest horizon, at full weight
+    private static final int SPLIT_LOCATIONS = 4_096;
+
+    private final LocationStore store;
+
+    // Triggering shocks queued by the listener, not yet matched to locations.
+    private long[] arrivalTimes = new long[16];
+    private double[] arrivalMagnitudes = new double[16];
+    private int[] arrivalLocations = new int[16];
+    private int arrivalCount;
+
+    // Shocks by arrival: time and expected aftershocks >= target per unit Omori decay.
+    private long[] shockTimes = new long[16];
+    private double[] productivities = new double[16];
+    private int shockCount;
+
+    // Pairs grouped by location: those of location id sit at [pairStart[id], pairStart[id + 1]).
+    private int[] pairStart = {0};
+    private int[] pairShocks = new int[0];
+    private float[] pairWeights = new float[0];
+
+    // Pairs of shocks that arrived since the last full refresh; the first
+    // `pendingApplied` of them are already included in `expected`.
+    private int[] pendingLocations = new int[64];
+    private int[] pendingShocks = new int[64];
+    private float[] pendingWeights = new float[64];
+    private int pendingCount;
+    private int pendingApplied;
+
+    private float[][] expected = new float[HORIZONS_MILLIS.length][0];
+    private boolean evaluated;
+    private long refreshedAt;
+
+    public AftershockForecaster(LocationStore store) {
+        this.store = store;
+    }
+
+    // Catalog listener: queues recent shocks big enough to drive aftershocks.
+    // Called for every imported event, so it does no more than that.
+    public synchronized void onEvent(long timeMillis, double magnitude, int locationId) {
+        if (magnitude < TRIGGER_MAGNITUDE || timeMillis < System.currentTimeMillis() - TRIGGER_WINDOW_MILLIS) return;
+        if (arrivalCount == arrivalTimes.length) {
+            arrivalTimes = Arrays.copyOf(arrivalTimes, arrivalCount * 2);
+            arrivalMagnitudes = Arrays.copyOf(arrivalMagnitudes, arrivalCount * 2);
+            arrivalLocations = Arrays.copyOf(arrivalLocations, arrivalCount * 2);
+        }
+        arrivalTimes[arrivalCount] = timeMillis;
+        arrivalMagnitudes[arrivalCount] = magnitude;
+        arrivalLocations[arrivalCount++] = locationId;
+    }
+
+    // Turns the queued shocks into shocks and pending pairs.
+    private void matchArrivals() {
+        for (int i = 0; i < arrivalCount; i++) match(arrivalTimes[i], arrivalMagnitudes[i], arrivalLocations[i]);
+        arrivalCount = 0;
+    }
+
+    private void match(long timeMillis, double magnitude, int locationId) {
+        if (shockCount == shockTimes.length) {
+            shockTimes = Arrays.copyOf(shockTimes, shockCount * 2);
+            productivities = Arrays.copyOf(productivities, shockCount * 2);
+        }
+        int shock = shockCount++;
+        shockTimes[shock] = timeMillis;
+        productivities[shock] = Math.pow(10, A + B * (magnitude - TARGET_MAGNITUDE));
+
+        Location origin = store.get(locationId);
+        if (!origin.hasCoordinates()) {
+            addPending(locationId, shock, 1f);
+            return;
+        }
+        // Kernel (1 + r^2/d^2)^-1.5, with d about the rupture length, cut off below MIN_WEIGHT.
+        double scaleKm = Math.pow(10, 0.5 * magnitude - 1.8);
+        double reachKm = scaleKm * Math.sqrt(Math.pow(MIN_WEIGHT, -2.0 / 3) - 1);
+        for (int id : store.idsWithin(origin.getLatitude(), origin.getLongitude(), reachKm)) {
+            Location loc = store.get(id);
+            double r = LocationGrid.distanceKm(origin.getLatitude(), origin.getLongitude(), loc.getLatitude(), loc.getLongitude()) / scaleKm;
+            addPending(id, shock, (float) Math.pow(1 + r * r, -1.5));
+        }
+    }
+
+    // Expected aftershocks >= TARGET_MAGNITUDE at the location within the horizon.
+    public synchronized double expected(int id, int horizon) {
+        refresh(System.currentTimeMillis());
+        return id < expected[horizon].length ? expected[horizon][id] : 0;
+    }
+
+    // Full evaluation at `now` once the last one is REFRESH_MILLIS old, the
+    // store has grown or the clock has gone back past it; otherwise only
+    // pending shocks are added in.
+    public synchronized void refresh(long now) {
+        matchArrivals();
+        int locations = store.size();
+        if (evaluated && now >= refreshedAt && now - refreshedAt < REFRESH_MILLIS && locations <= expected[0].length) {
+            double[] integrals = new double[HORIZONS_MILLIS.length];
+            for (; pendingApplied < pendingCount; pendingApplied++) {
+                omoriIntegrals(pendingShocks[pendingApplied], refreshedAt, integrals);
+                for (int h = 0; h < integrals.length; h++)
+                    expected[h][pendingLocations[pendingApplied]] += pendingWeights[pendingApplied] * integrals[h];
+            }
+            return;
+        }
+
+        // Renumber the shocks that still matter; -1 marks the ones to drop.
+        double[][] integrals = new double[HORIZONS_MILLIS.length][shockCount];
+        double[] scratch = new double[HORIZONS_MILLIS.length];
+        int[] renumbered = new int[shockCount];
+        int kept = 0;
+        for (int shock = 0; shock < shockCount; shock++) {
+            omoriIntegrals(shock, now, scratch);
+            if (shockTimes[shock] < now - TRIGGER_WINDOW_MILLIS || scratch[scratch.length - 1] < MIN_EXPECTED) {
+                renumbered[shock] = -1;
+                continue;
+            }
+            for (int h = 0; h < scratch.length; h++) integrals[h][kept] = scratch[h];
+            shockTimes[kept] = shockTimes[shock];
+            productivities[kept] = productivities[shock];
+            renumbered[shock] = kept++;
+        }
+        shockCount = kept;
+        groupPendingByLocation(locations, renumbered);
+
+        float[][] result = new float[HORIZONS_MILLIS.length][locations];
+        if (locations > 0) ForkJoinPool.commonPool().invoke(new Evaluate(integrals, result, 0, locations));
+        expected = result;
+        evaluated = true;
+        refreshedAt = now;
+    }
+
+    // Integral of productivity * (t + c)^-p over each horizon from `now`, t in days since the shock.
+    private void omoriIntegrals(int shock, long now, double[] out) {
+        double elapsed = Math.max(0, now - shockTimes[shock]) / (double) DAY_MILLIS;
+        double start = Math.pow(elapsed + C_DAYS, 1 - P);
+        for (int h = 0; h < out.length; h++) {
+            double end = Math.pow(elapsed + HORIZONS_MILLIS[h] / (double) DAY_MILLIS + C_DAYS, 1 - P);
+            out[h] = productivities[shock] * (start - end) / (P - 1);
+        }
+    }
+
+    private void addPending(int id, int shock, float weight) {
+        if (pendingCount == pendingLocations.length) {
+            pendingLocations = Arrays.copyOf(pendingLocations, pendingCount * 2);
+            pendingShocks = Arrays.copyOf(pendingShocks, pendingCount * 2);
+            pendingWeights = Arrays.copyOf(pendingWeights, pendingCount * 2);
+        }
+        pendingLocations[pendingCount] = id;
+        pendingShocks[pendingCount] = shock;
+        pendingWeights[pendingCount++] = weight;
+    }
+
+    // Counting sort of the grouped pairs plus the pending ones by location,
+    // keeping only pairs of shocks that were not dropped and renumbering those.
+    private void groupPendingByLocation(int locations, int[] renumbered) {
+        int grouped = pairStart.length - 1;
+        int[] start = new int[locations + 1];
+        for (int id = 0; id < grouped; id++)
+            for (int k = pairStart[id]; k < pairStart[id + 1]; k++) if (renumbered[pairShocks[k]] >= 0) start[id + 1]++;
+        for (int i = 0; i < pendingCount; i++) if (renumbered[pendingShocks[i]] >= 0) start[pendingLocations[i] + 1]++;
+        for (int id = 0; id < locations; id++) start[id + 1] += start[id];
+
+        int[] shocks = new int[start[locations]];
+        float[] weights = new float[start[locations]];
+        int[] next = Arrays.copyOf(start, locations);
+        for (int id = 0; id < grouped; id++) {
+            for (int k = pairStart[id]; k < pairStart[id + 1]; k++) {
+                int shock = renumbered[pairShocks[k]];
+                if (shock < 0) continue;
+                int slot = next[id]++;
+                shocks[slot] = shock;
+                weights[slot] = pairWeights[k];
+            }
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            int shock = renumbered[pendingShocks[i]];
+            if (shock < 0) continue;
+            int slot = next[pendingLocations[i]]++;
+            shocks[slot] = shock;
+            weights[slot] = pendingWeights[i];
+        }
+        pairStart = start;
+        pairShocks = shocks;
+        pairWeights = weights;
+        pendingCount = 0;
+        pendingApplied = 0;
+    }
 
-    public Location(String name, String riskLevel, int historicalQuakes, double lastMagnitude, double distanceToFaultLineKm) {
-        this.name = name;
-        this.riskLevel = riskLevel;
-        this.historicalQuakes = historicalQuakes;
-        this.lastMagnitude = lastMagnitude;
-        this.distanceToFaultLineKm = distanceToFaultLineKm;
+    @SuppressWarnings("serial") // never serialized; only run on the fork-join pool
+    private class Evaluate extends RecursiveAction {
+        private final double[][] integrals;
+        private final float[][] result;
+        private final int from, to;
+
+        Evaluate(double[][] integrals, float[][] result, int from, int to) {
+            this.integrals = integrals;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_LOCATIONS) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Evaluate(integrals, result, from, mid), new Evaluate(integrals, result, mid, to));
+                return;
+            }
+            for (int h = 0; h < integrals.length; h++) {
+                double[] perShock = integrals[h];
+                float[] out = result[h];
+                for (int id = from; id < to; id++) {
+                    double sum = 0;
+                    for (int k = pairStart[id]; k < pairStart[id + 1]; k++) sum += pairWeights[k] * perShock[pairShocks[k]];
+                    out[id] = (float) sum;
+                }
+            }
+        }
     }
+}
 
-    public String getName() { return name; }
-    public String getRiskLevel() { return riskLevel; }
-    public int getHistoricalQuakes() { return historicalQuakes; }
-    public double getLastMagnitude() { return lastMagnitude; }
-    public double getDistanceToFaultLineKm() { return distanceToFaultLineKm; }
+// Growable byte buffer for report output. Numbers and strings are encoded
+// straight into bytes (UTF-8, with CSV or JSON quoting), so rows are written
+// without format strings or intermediate Strings, and the buffer is reused.
+class ReportBuffer {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+    private static final BigDecimal HALF = BigDecimal.valueOf(5, 1);
 
-    public abstract String getType();
+    private byte[] bytes = new byte[1 << 16];
+    private int length;
 
-    public String getDetails() {
-        return String.format(
-            "\nLocation: %s (%s)\nRisk Level: %s\nHistorical Earthquakes: %d\nLast Major Magnitude: %.1f\nDistance to Fault Line: %.1f km\n",
-            getName(), getType(), getRiskLevel(), getHistoricalQuakes(), getLastMagnitude(), getDistanceToFaultLineKm()
-        );
+    public int length() { return length; }
+    public void clear() { length = 0; }
+
+    public byte[] toByteArray() { return Arrays.copyOf(bytes, length); }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    public ReportBuffer append(byte[] constant) {
+        ensureCapacity(constant.length);
+        System.arraycopy(constant, 0, bytes, length, constant.length);
+        length += constant.length;
+        return this;
+    }
+
+    public ReportBuffer append(char ascii) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) ascii;
+        return this;
+    }
+
+    public ReportBuffer text(String text) {
+        ensureCapacity(text.length() * 3);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xC0 | c >> 6);
+                bytes[length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, text.charAt(++i));
+                bytes[length++] = (byte) (0xF0 | code >> 18);
+                bytes[length++] = (byte) (0x80 | code >> 12 & 0x3F);
+                bytes[length++] = (byte) (0x80 | code >> 6 & 0x3F);
+                bytes[length++] = (byte) (0x80 | code & 0x3F);
+            } else {
+                if (Character.isSurrogate(c)) c = '?'; // unpaired
+                bytes[length++] = (byte) (0xE0 | c >> 12);
+                bytes[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return this;
+    }
+
+    // Quoted only when the value needs it, with quotes doubled.
+    public ReportBuffer csv(String text) {
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) return text(text);
+        append('"');
+        int start = 0;
+        for (int quoteAt = text.indexOf('"'); quoteAt >= 0; quoteAt = text.indexOf('"', start)) {
+            text(text.substring(start, quoteAt + 1)).append('"');
+            start = quoteAt + 1;
+        }
+        return text(text.substring(start)).append('"');
+    }
+
+    public ReportBuffer json(String text) {
+        append('"');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            text(text.substring(start, i));
+            if (c == '"' || c == '\\') append('\\').append(c);
+            else if (c == '\n') append('\\').append('n');
+            else if (c == '\t') append('\\').append('t');
+            else append('\\').append('u').append('0').append('0').append((char) HEX[c >> 4]).append((char) HEX[c & 0xF]);
+            start = i + 1;
+        }
+        return text(text.substring(start)).append('"');
+    }
+
+    public ReportBuffer number(long value) {
+        ensureCapacity(20);
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int end = length + digitCount(value);
+        for (int i = end - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+        return this;
+    }
+
+    // Fixed-point with the given number of decimals (at most 6), rounded like
+    // String.format: half up on the shortest decimal form of the double. Only
+    // values within a hair of a tie take the slower BigDecimal path.
+    public ReportBuffer decimal(double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return text(Double.toString(value));
+        long scale = POWERS_OF_TEN[decimals];
+        double product = Math.abs(value) * scale;
+        long scaled = (long) product;
+        double rest = product - scaled;
+        if (Math.abs(rest - 0.5) < 1e-6) {
+            BigDecimal shortest = new BigDecimal(Double.toString(Math.abs(value))).multiply(BigDecimal.valueOf(scale));
+            if (shortest.compareTo(BigDecimal.valueOf(scaled).add(HALF)) >= 0) scaled++;
+        } else if (rest > 0.5) {
+            scaled++;
+        }
+        if (Double.doubleToRawLongBits(value) < 0) append('-');
+        number(scaled / scale);
+        if (decimals == 0) return this;
+        append('.');
+        long fraction = scaled % scale;
+        for (int digits = fraction == 0 ? 0 : digitCount(fraction); digits < decimals; digits++) append('0');
+        return fraction == 0 ? this : number(fraction);
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(length + extra, bytes.length * 2));
     }
 }
 
-class CityLocation extends Location {
-    public CityLocation(String name, String riskLevel, int historicalQuakes, double lastMagnitude, double distanceToFaultLineKm) {
-        super(name, riskLevel, historicalQuakes, lastMagnitude, distanceToFaultLineKm);
+// Nationwide report: every location's details and preparedness tips, in
+// alphabetical order, as CSV, JSON lines or the same text the console shows.
+// Rows are formatted into ReportBuffers and written to a FileChannel whenever a
+// buffer fills. With `parallel`, chunks of rows are formatted on the common
+// pool while the calling thread writes finished chunks in order; buffers cycle
+// through a small pool, so a full-country report allocates a handful of them.
+class RiskReport {
+    public enum Format {
+        CSV(".csv"), JSON_LINES(".jsonl"), TEXT(".txt");
+
+        private final String extension;
+
+        Format(String extension) { this.extension = extension; }
+
+        public String getExtension() { return extension; }
+
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            for (Format format : values()) if (name.endsWith(format.extension)) return format;
+            return TEXT;
+        }
+    }
+
+    private static final int CHUNK_ROWS = 8_192;
+    private static final int FLUSH_BYTES = 1 << 16;
+    private static final byte[] CSV_HEADER = ascii("name,type,risk,historical_quakes,last_magnitude,fault_distance_km,latitude,longitude,tips\n");
+    private static final byte[] CITY = ascii("City"), PROVINCE = ascii("Province");
+    private static final byte[] JSON_NAME = ascii("{\"name\":"), JSON_TYPE = ascii(",\"type\":\""),
+            JSON_RISK = ascii("\",\"risk\":\""), JSON_QUAKES = ascii("\",\"historicalQuakes\":"),
+            JSON_MAGNITUDE = ascii(",\"lastMagnitude\":"), JSON_DISTANCE = ascii(",\"faultDistanceKm\":"),
+            JSON_LATITUDE = ascii(",\"latitude\":"), JSON_LONGITUDE = ascii(",\"longitude\":"),
+            JSON_NULL = ascii("null"), JSON_TIPS = ascii(",\"tips\":");
+    private static final byte[] TEXT_LOCATION = ascii("\nLocation: "), TEXT_RISK = ascii(")\nRisk Level: "),
+            TEXT_QUAKES = ascii("\nHistorical Earthquakes: "), TEXT_MAGNITUDE = ascii("\nLast Major Magnitude: "),
+            TEXT_DISTANCE = ascii("\nDistance to Fault Line: "), TEXT_KM = ascii(" km\n"),
+            TEXT_COORDINATES = ascii("Coordinates: ");
+    private static final RiskLevel[] RISKS = RiskLevel.values();
+    // Risk label and tips, encoded once per format.
+    private static final byte[][] LABELS = new byte[RISKS.length][];
+    private static final byte[][][] TIPS = new byte[Format.values().length][RISKS.length][];
+
+    static {
+        for (RiskLevel risk : RISKS) {
+            LABELS[risk.ordinal()] = ascii(risk.getLabel());
+            List<String> tips = risk.getPreparednessTips();
+            ReportBuffer csv = new ReportBuffer(), json = new ReportBuffer().append('['), text = new ReportBuffer();
+            csv.csv(String.join(" | ", tips));
+            text.text("\nPreparedness Tips:\n");
+            for (int i = 0; i < tips.size(); i++) {
+                if (i > 0) json.append(',');
+                json.json(tips.get(i));
+                text.text("- " + tips.get(i) + "\n");
+            }
+            TIPS[Format.CSV.ordinal()][risk.ordinal()] = csv.toByteArray();
+            TIPS[Format.JSON_LINES.ordinal()][risk.ordinal()] = json.append(']').toByteArray();
+            TIPS[Format.TEXT.ordinal()][risk.ordinal()] = text.toByteArray();
+        }
+    }
+
+    // Returns the number of bytes written.
+    public static long write(Path file, LocationStore store, Format format, boolean parallel) throws IOException {
+        long[] written = {0};
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            store.read((rows, order, count) -> {
+                ReportBuffer buffer = new ReportBuffer();
+                if (format == Format.CSV) buffer.append(CSV_HEADER);
+                if (!parallel || count < 2 * CHUNK_ROWS) {
+                    for (int rank = 0; rank < count; rank++) {
+                        formatRow(format, rows, order[rank], buffer);
+                        if (buffer.length() >= FLUSH_BYTES) {
+                            buffer.writeTo(channel);
+                            buffer.clear();
+                        }
+                    }
+                    buffer.writeTo(channel);
+                } else {
+                    buffer.writeTo(channel);
+                    writeParallel(channel, format, rows, order, count);
+                }
+                written[0] = channel.position();
+            });
+        }
+        return written[0];
+    }
+
+    private static void writeParallel(FileChannel channel, Format format, LocationRows rows, int[] order, int count)
+            throws IOException {
+        int maxInFlight = 2 * ForkJoinPool.commonPool().getParallelism() + 1;
+        ConcurrentLinkedQueue<ReportBuffer> spare = new ConcurrentLinkedQueue<>();
+        ArrayDeque<Future<ReportBuffer>> inFlight = new ArrayDeque<>();
+        try {
+            for (int from = 0; from < count || !inFlight.isEmpty(); ) {
+                if (from < count && inFlight.size() < maxInFlight) {
+                    int start = from, end = Math.min(count, from + CHUNK_ROWS);
+                    inFlight.add(ForkJoinPool.commonPool().submit(() -> {
+                        ReportBuffer chunk = spare.poll();
+                        if (chunk == null) chunk = new ReportBuffer();
+                        for (int rank = start; rank < end; rank++) formatRow(format, rows, order[rank], chunk);
+                        return chunk;
+                    }));
+                    from = end;
+                    continue;
+                }
+                ReportBuffer chunk = inFlight.poll().get();
+                chunk.writeTo(channel);
+                chunk.clear();
+                spare.add(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Report interrupted.");
+        } catch (ExecutionException e) {
+            throw new IOException("Report failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (Future<ReportBuffer> pending : inFlight) pending.cancel(false);
+        }
+    }
+
+    private static void formatRow(Format format, LocationRows rows, int id, ReportBuffer out) {
+        int risk = rows.risk(id).ordinal();
+        byte[] type = rows.isProvince(id) ? PROVINCE : CITY;
+        double latitude = rows.latitude(id), longitude = rows.longitude(id);
+        boolean located = !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        byte[] tips = TIPS[format.ordinal()][risk];
+        switch (format) {
+            case CSV -> {
+                out.csv(rows.name(id)).append(',').append(type).append(',').append(LABELS[risk]).append(',')
+                        .number(rows.quakes(id)).append(',').decimal(rows.magnitude(id), 1).append(',')
+                        .decimal(rows.faultDistance(id), 1).append(',');
+                if (located) out.decimal(latitude, 4).append(',').decimal(longitude, 4);
+                else out.append(',');
+                out.append(',').append(tips).append('\n');
+            }
+            case JSON_LINES -> {
+                out.append(JSON_NAME).json(rows.name(id)).append(JSON_TYPE).append(type).append(JSON_RISK).append(LABELS[risk])
+                        .append(JSON_QUAKES).number(rows.quakes(id)).append(JSON_MAGNITUDE).decimal(rows.magnitude(id), 1)
+                        .append(JSON_DISTANCE).decimal(rows.faultDistance(id), 1).append(JSON_LATITUDE);
+                if (located) out.decimal(latitude, 4).append(JSON_LONGITUDE).decimal(longitude, 4);
+                else out.append(JSON_NULL).append(JSON_LONGITUDE).append(JSON_NULL);
+                out.append(JSON_TIPS).append(tips).append('}').append('\n');
+            }
+            case TEXT -> {
+                out.append(TEXT_LOCATION).text(rows.name(id)).append(' ').append('(').append(type).append(TEXT_RISK)
+                        .append(LABELS[risk]).append(TEXT_QUAKES).number(rows.quakes(id))
+                        .append(TEXT_MAGNITUDE).decimal(rows.magnitude(id), 1)
+                        .append(TEXT_DISTANCE).decimal(rows.faultDistance(id), 1).append(TEXT_KM);
+                if (located) out.append(TEXT_COORDINATES).decimal(latitude, 4).append(',').append(' ').decimal(longitude, 4).append('\n');
+                out.append(tips);
+            }
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
     }
-    @Override
-    public String getType() { return "City"; }
 }
 
-class ProvinceLocation extends Location {
-    public ProvinceLocation(String name, String riskLevel, int historicalQuakes, double lastMagnitude, double distanceToFaultLineKm) {
-        super(name, riskLevel, historicalQuakes, lastMagnitude, distanceToFaultLineKm);
+// Monte Carlo damage scenarios for a quake of a given magnitude on the fault
+// system. Each trial draws where along the rupture the energy is released, the
+// peak ground acceleration that reaches each location (Campbell-style
+// attenuation with lognormal scatter, amplified on sites with a long quake
+// history) and the location's building capacity, then counts how often shaking
+// passes each threshold and how often buildings are damaged. Locations are
+// independent given the scenario, so the fork-join split is by location range:
+// each task owns its slice of the results and its own SplittableRandom split
+// off the parent's, and nothing is shared between tasks.
+class ScenarioSimulator {
+    static final double[] PGA_THRESHOLDS_G = {0.10, 0.30};
+    private static final double[] LOG_THRESHOLDS = {Math.log(0.10), Math.log(0.30)};
+    private static final double SCATTER = 0.55;
+    private static final double LOG_MEDIAN_CAPACITY = Math.log(0.35);
+    private static final double CAPACITY_SCATTER = 0.5;
+    private static final double QUAKE_SATURATION = Math.log1p(100);
+    private static final long SPLIT_SAMPLES = 1 << 18; // location-trials per leaf task
+
+    // Model inputs by location id.
+    public static class Exposure {
+        private final int[] quakes;
+        private final float[] faultDistancesKm;
+
+        public Exposure(int[] quakes, float[] faultDistancesKm) {
+            this.quakes = quakes;
+            this.faultDistancesKm = faultDistancesKm;
+        }
+
+        public int size() { return quakes.length; }
+    }
+
+    // Probabilities by location id.
+    public static class Result {
+        private final int trials;
+        private final float[][] exceedance;
+        private final float[] damage;
+
+        Result(int trials, int size) {
+            this.trials = trials;
+            this.exceedance = new float[PGA_THRESHOLDS_G.length][size];
+            this.damage = new float[size];
+        }
+
+        public int getTrials() { return trials; }
+        public int size() { return damage.length; }
+        public double exceedance(int threshold, int id) { return exceedance[threshold][id]; }
+        public double damage(int id) { return damage[id]; }
+
+        // The k ids with the highest damage probability, highest first (lower id
+        // on ties). One pass with a k-sized min-heap whose root is the weakest kept id.
+        public int[] mostDamaged(int k) {
+            k = Math.min(k, damage.length);
+            int[] heap = new int[k];
+            int size = 0;
+            for (int id = 0; id < damage.length; id++) {
+                if (size < k) {
+                    heap[size] = id;
+                    siftUp(heap, size++);
+                } else if (k > 0 && beats(id, heap[0])) {
+                    heap[0] = id;
+                    siftDown(heap, size);
+                }
+            }
+            int[] ranked = new int[size];
+            while (size > 0) {
+                ranked[size - 1] = heap[0];
+                heap[0] = heap[--size];
+                siftDown(heap, size);
+            }
+            return ranked;
+        }
+
+        private boolean beats(int a, int b) {
+            return damage[a] > damage[b] || (damage[a] == damage[b] && a < b);
+        }
+
+        private void siftUp(int[] heap, int i) {
+            int id = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!beats(heap[parent], id)) break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = id;
+        }
+
+        private void siftDown(int[] heap, int size) {
+            if (size == 0) return;
+            int id = heap[0];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && beats(heap[child], heap[child + 1])) child++;
+                if (!beats(id, heap[child])) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = id;
+        }
+    }
+
+    public static Result run(Exposure exposure, double magnitude, int trials, long seed) {
+        Result result = new Result(trials, exposure.size());
+        if (exposure.size() > 0 && trials > 0)
+            ForkJoinPool.commonPool().invoke(new Trials(exposure, magnitude, result, 0, exposure.size(), new SplittableRandom(seed)));
+        return result;
+    }
+
+    @SuppressWarnings("serial") // never serialized; only run on the fork-join pool
+    private static class Trials extends RecursiveAction {
+        private final Exposure exposure;
+        private final double magnitude;
+        private final Result result;
+        private final int from, to;
+        private final SplittableRandom random;
+
+        Trials(Exposure exposure, double magnitude, Result result, int from, int to, SplittableRandom random) {
+            this.exposure = exposure;
+            this.magnitude = magnitude;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+            this.random = random;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && (long) (to - from) * result.trials > SPLIT_SAMPLES) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Trials(exposure, magnitude, result, from, mid, random.split()),
+                        new Trials(exposure, magnitude, result, mid, to, random));
+                return;
+            }
+            int trials = result.trials;
+            // Near-source saturation term and half the rupture length (Wells-Coppersmith).
+            double saturation = 0.149 * Math.exp(0.647 * magnitude);
+            double saturationSquared = saturation * saturation;
+            double halfRuptureKm = Math.pow(10, -3.22 + 0.69 * magnitude) / 2;
+            double magnitudeTerm = -3.512 + 0.904 * magnitude;
+            int[] exceeded = new int[LOG_THRESHOLDS.length];
+            for (int id = from; id < to; id++) {
+                double faultKm = exposure.faultDistancesKm[id];
+                double faultSquared = faultKm * faultKm;
+                double logAmplification = Math.log(1 + 0.5 * Math.min(1, Math.log1p(exposure.quakes[id]) / QUAKE_SATURATION));
+                Arrays.fill(exceeded, 0);
+                int damaged = 0;
+                for (int t = 0; t < trials; t++) {
+                    double along = random.nextDouble() * halfRuptureKm;
+                    double logPga = magnitudeTerm + logAmplification + SCATTER * random.nextGaussian()
+                            - 0.664 * Math.log(faultSquared + along * along + saturationSquared); // 1.328 ln(sqrt(...))
+                    for (int k = 0; k < LOG_THRESHOLDS.length; k++) if (logPga >= LOG_THRESHOLDS[k]) exceeded[k]++;
+                    if (logPga > LOG_MEDIAN_CAPACITY + CAPACITY_SCATTER * random.nextGaussian()) damaged++;
+                }
+                for (int k = 0; k < exceeded.length; k++) result.exceedance[k][id] = (float) exceeded[k] / trials;
+                result.damage[id] = (float) damaged / trials;
+            }
+        }
+    }
+}
+
+// Concurrency check for LocationStore (java QuakeGuard --stress [--columnar]).
+// Quake writers hammer existing rows, one writer keeps adding locations (so the
+// rows grow and shift while quakes land), and readers run lookups, rankings and
+// full scans the whole time. Readers check what must hold at any moment; once
+// everyone stops, the totals must add up exactly: every recorded quake counted
+// once, every score matching its row, and every ranking matching a full sort.
+class LocationStoreStress {
+    private static final int PRELOAD = 50_000;
+    private static final int QUAKE_WRITERS = 2;
+    private static final int READERS = 2;
+    private static final long RUN_MILLIS = 5_000;
+    private static final int TOP = 25;
+    private static final int MAX_FAILURES = 20;
+
+    private final LocationStore store;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private volatile int added;
+
+    public LocationStoreStress(boolean columnar) {
+        this.store = columnar ? new LocationStore(new ColumnarLocationRows()) : new LocationStore();
+    }
+
+    public boolean run() throws InterruptedException {
+        SplittableRandom random = new SplittableRandom(211);
+        List<Location> batch = new ArrayList<>(PRELOAD);
+        for (int i = 0; i < PRELOAD; i++) batch.add(location(String.format("Loc%06d", i), random));
+        store.addAll(batch);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < QUAKE_WRITERS; w++) threads.add(new Thread(this::recordQuakes, "stress-quakes-" + w));
+        threads.add(new Thread(this::addLocations, "stress-adds"));
+        for (int r = 0; r < READERS; r++) threads.add(new Thread(this::readStore, "stress-reads-" + r));
+        long started = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        Thread.sleep(RUN_MILLIS);
+        running = false;
+        for (Thread thread : threads) thread.join();
+        long millis = (System.nanoTime() - started) / 1_000_000;
+
+        verify();
+        System.out.printf("%,d quakes recorded, %,d locations added, %,d reads in %,d ms.%n",
+                recorded.sum(), added, reads.sum(), millis);
+        if (failures.isEmpty()) {
+            System.out.println("Stress test passed.");
+            return true;
+        }
+        System.out.println("Stress test FAILED:");
+        for (String failure : failures) System.out.println("  " + failure);
+        return false;
+    }
+
+    private static Location location(String name, SplittableRandom random) {
+        return new CityLocation(name, RiskLevel.values()[random.nextInt(RiskLevel.values().length)], 0,
+                3 + random.nextDouble(5), random.nextDouble(100),
+                5 + random.nextDouble(14), 117 + random.nextDouble(10));
+    }
+
+    private void recordQuakes() {
+        SplittableRandom random = new SplittableRandom();
+        while (running) {
+            // Half the quakes hit locations added during the run, found by name like the feed does.
+            int known = added;
+            String name = known > 0 && random.nextBoolean()
+                    ? String.format("New%06d", random.nextInt(known))
+                    : String.format("Loc%06d", random.nextInt(PRELOAD));
+            int id = store.idOf(name);
+            if (id < 0) {
+                fail("idOf(" + name + ") found nothing");
+                continue;
+            }
+            store.recordQuake(id, 3 + random.nextDouble(5));
+            recorded.increment();
+        }
+    }
+
+    private void addLocations() {
+        SplittableRandom random = new SplittableRandom();
+        while (running) {
+            store.add(location(String.format("New%06d", added), random));
+            added++;
+            if (added % 5_000 == 0) store.rescoreAll();
+        }
+    }
+
+    private void readStore() {
+        SplittableRandom random = new SplittableRandom();
+        int lastSize = 0;
+        while (running) {
+            int size = store.size();
+            if (size < lastSize) fail("size went from " + lastSize + " back to " + size);
+            lastSize = size;
+
+            String name = String.format("Loc%06d", random.nextInt(PRELOAD));
+            Location found = store.find(name);
+            if (found == null || !found.getName().equals(name)) fail("find(" + name + ") returned " + found);
+
+            Ranking ranking = Ranking.values()[random.nextInt(Ranking.values().length)];
+            List<Location> top = store.top(ranking, TOP);
+            if (top.size() != TOP) fail(ranking + " top returned " + top.size() + " locations");
+            if (top.stream().map(Location::getName).distinct().count() != top.size())
+                fail(ranking + " top listed a location twice");
+
+            if (random.nextInt(20) == 0) scan();
+            store.within(12, 122, 50);
+            reads.increment();
+        }
+    }
+
+    // Under the read lock the order must hold every row exactly once, sorted by key.
+    private void scan() {
+        try {
+            store.read((rows, order, count) -> {
+                if (count != rows.size()) fail("scan saw " + count + " ordered ids for " + rows.size() + " rows");
+                boolean[] seen = new boolean[count];
+                for (int rank = 0; rank < count; rank++) {
+                    int id = order[rank];
+                    if (id < 0 || id >= count || seen[id]) {
+                        fail("scan saw id " + id + " out of range or twice");
+                        return;
+                    }
+                    seen[id] = true;
+                    if (rank > 0 && rows.key(order[rank - 1]).compareTo(rows.key(id)) > 0) {
+                        fail("scan order breaks at rank " + rank);
+                        return;
+                    }
+                }
+            });
+        } catch (IOException e) {
+            fail("scan failed: " + e.getMessage());
+        }
+    }
+
+    private void verify() {
+        int size = store.size();
+        if (size != PRELOAD + added) fail("store holds " + size + " rows, expected " + (PRELOAD + added));
+
+        long quakes = 0;
+        int byRisk = 0, byComputedRisk = 0;
+        for (RiskLevel risk : RiskLevel.values()) {
+            byRisk += store.countByRisk(risk);
+            byComputedRisk += store.countByComputedRisk(risk);
+        }
+        if (byRisk != size) fail("risk buckets hold " + byRisk + " of " + size + " rows");
+        if (byComputedRisk != size) fail("computed risk levels cover " + byComputedRisk + " of " + size + " rows");
+
+        double[][] keys = new double[Ranking.values().length][size];
+        for (int id = 0; id < size; id++) {
+            Location loc = store.get(id);
+            quakes += loc.getHistoricalQuakes();
+            float expected = RiskScorer.score(loc.getHistoricalQuakes(), loc.getLastMagnitude(), loc.getDistanceToFaultLineKm());
+            if (store.riskScore(id) != expected && failures.size() < MAX_FAILURES)
+                fail(loc.getName() + " scores " + store.riskScore(id) + ", its row says " + expected);
+            for (Ranking ranking : Ranking.values()) keys[ranking.ordinal()][id] = key(ranking, loc, id);
+        }
+        if (quakes != recorded.sum()) fail("rows count " + quakes + " quakes, " + recorded.sum() + " were recorded");
+
+        for (Ranking ranking : Ranking.values()) {
+            double[] sorted = keys[ranking.ordinal()].clone();
+            Arrays.sort(sorted);
+            List<Location> top = store.top(ranking, TOP);
+            for (int i = 0; i < top.size(); i++) {
+                Location loc = top.get(i);
+                double expected = sorted[sorted.length - 1 - i];
+                double actual = key(ranking, loc, store.idOf(loc.getName()));
+                if (actual != expected) {
+                    fail(ranking + " #" + (i + 1) + " is " + loc.getName() + " at " + actual + ", a full sort gives " + expected);
+                    break;
+                }
+            }
+        }
+    }
+
+    private double key(Ranking ranking, Location loc, int id) {
+        switch (ranking) {
+            case MAGNITUDE: return loc.getLastMagnitude();
+            case QUAKES: return loc.getHistoricalQuakes();
+            case FAULT_PROXIMITY: return -loc.getDistanceToFaultLineKm();
+            default: return store.riskScore(id);
+        }
+    }
+
+    private void fail(String message) {
+        if (failures.size() < MAX_FAILURES) failures.add(message);
     }
-    @Override
-    public String getType() { return "Province"; }
 }
 
 public class QuakeGuard {
-    private ArrayList<Location> database = new ArrayList<>();
+    private static final int MAX_SUGGESTIONS = 10;
+    private static final int NEAREST_COUNT = 5;
+    private static final int TOP_COUNT = 10;
+    private static final int SCENARIO_TRIALS = 10_000;
+    private static final int SCENARIO_ROWS = 15;
+    private static final int CATALOG_ROWS = 20;
+    private static final int FORECAST_HORIZON = 1; // 7 days
+    private static final double ESCALATE_AFTERSHOCKS = 0.5;
+
+    private static final Path SNAPSHOT_FILE = Path.of("quakeguard.snapshot");
+    private static final Path JOURNAL_FILE = Path.of("quakeguard.journal");
+
+    private LocationStore database;
+    private LocationJournal journal = new LocationJournal(JOURNAL_FILE);
+    private boolean keepSavedFiles; // a damaged file could not be moved aside, so nothing is written over it
+    private final QuakeCatalog catalog = new QuakeCatalog();
+    private final AftershockForecaster forecaster;
+    private QuakeEventFeed feed;
+    private long stoppedFeedEvents;
     private Scanner scanner = new Scanner(System.in);
-    private final String[] allowedRiskLevels = {"Low", "Moderate", "High"};
 
     public QuakeGuard() {
-        seedSampleData();
+        this(new LocationStore());
+    }
+
+    public QuakeGuard(LocationStore database) {
+        this.database = database;
+        this.forecaster = new AftershockForecaster(database);
+        catalog.addListener(forecaster::onEvent);
+        // Sample data only on a first run: a snapshot that exists but cannot be
+        // read is moved aside, never replaced by samples, and the journal is
+        // still replayed so its generation and length match the file.
+        LocationJournal.Position covered = LocationJournal.Position.NONE;
+        try {
+            long start = System.nanoTime();
+            LocationJournal.Position loaded = LocationSnapshot.loadInto(SNAPSHOT_FILE, database);
+            if (loaded != null) {
+                covered = loaded;
+                System.out.println("Loaded " + database.size() + " location(s) from " + SNAPSHOT_FILE
+                        + " in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            } else {
+                seedSampleData();
+            }
+        } catch (IOException e) {
+            System.out.println("Error loading saved locations: " + e.getMessage());
+            setAside(SNAPSHOT_FILE);
+        }
+        try {
+            journal.replayInto(database, covered);
+        } catch (IOException e) {
+            System.out.println("Error replaying " + JOURNAL_FILE + ": " + e.getMessage());
+            if (setAside(JOURNAL_FILE)) {
+                try {
+                    journal.replayInto(database, covered); // no file now: starts the next generation
+                } catch (IOException again) {
+                    keepSavedFiles = true;
+                }
+            }
+        }
+    }
+
+    // Moves a damaged file out of the way (to <name>.corrupt, or .corrupt.N if
+    // that is taken) so it can be inspected or recovered and is never overwritten.
+    private boolean setAside(Path file) {
+        Path aside = file.resolveSibling(file.getFileName() + ".corrupt");
+        for (int n = 1; Files.exists(aside); n++) aside = file.resolveSibling(file.getFileName() + ".corrupt." + n);
+        try {
+            Files.move(file, aside);
+            System.out.println("Moved " + file + " to " + aside + "; the locations in it are not loaded.");
+            return true;
+        } catch (IOException e) {
+            System.out.println("Could not move " + file + " aside (" + e.getMessage()
+                    + "); saved files will not be written this session.");
+            keepSavedFiles = true;
+            return false;
+        }
     }
 
     private void seedSampleData() {
-        database.add(new ProvinceLocation("Abra", "Moderate", 25, 6.3, 22.0));
-        database.add(new ProvinceLocation("Albay", "High", 42, 6.9, 12.5));
-        database.add(new CityLocation("Angeles City", "Moderate", 19, 6.0, 28.0));
-        database.add(new CityLocation("Antipolo City", "High", 31, 6.7, 10.0));
-        database.add(new ProvinceLocation("Antique", "Moderate", 22, 6.1, 35.0));
-        database.add(new CityLocation("Bacolod City", "Moderate", 18, 5.8, 40.0));
-        database.add(new CityLocation("Batangas City", "High", 38, 6.5, 14.0));
-        database.add(new CityLocation("Cagayan de Oro City", "Low", 6, 4.9, 80.0));
-        database.add(new CityLocation("Caloocan City", "High", 30, 6.6, 11.5));
-        database.add(new CityLocation("Cebu City", "Moderate", 20, 6.0, 34.0));
-        database.add(new CityLocation("Davao City", "Moderate", 18, 6.2, 30.0));
-        database.add(new CityLocation("Dagupan City", "Moderate", 27, 6.4, 26.0));
-        database.add(new CityLocation("Dasmariñas City", "Moderate", 21, 6.2, 20.0));
-        database.add(new CityLocation("General Santos City", "Moderate", 15, 5.9, 37.0));
-        database.add(new ProvinceLocation("Ilocos Region", "Moderate", 29, 6.3, 24.0));
-        database.add(new CityLocation("Ilagan City", "Moderate", 17, 6.0, 32.0));
-        database.add(new CityLocation("Kalibo City", "Low", 5, 4.8, 90.0));
-        database.add(new CityLocation("Laoag City", "Low", 8, 5.0, 70.0));
-        database.add(new CityLocation("Las Piñas City", "High", 33, 6.8, 13.5));
-        database.add(new CityLocation("Legazpi City", "High", 45, 7.0, 10.0));
-        database.add(new CityLocation("Manila", "High", 56, 7.1, 15.5));
-        database.add(new CityLocation("Makati City", "High", 34, 6.6, 14.0));
-        database.add(new CityLocation("Marikina City", "High", 36, 6.7, 9.0));
-        database.add(new CityLocation("Masbate City", "High", 40, 6.8, 18.0));
-        database.add(new CityLocation("Muntinlupa City", "High", 32, 6.5, 16.0));
-        database.add(new CityLocation("Naga City", "Moderate", 23, 6.1, 25.0));
-        database.add(new CityLocation("Olongapo City", "Moderate", 20, 6.2, 29.0));
-        database.add(new CityLocation("Pagadian City", "Moderate", 16, 5.9, 38.0));
-        database.add(new CityLocation("Parañaque City", "High", 31, 6.4, 17.0));
-        database.add(new CityLocation("Pasig City", "High", 30, 6.5, 12.0));
-        database.add(new CityLocation("Puerto Princesa City", "Low", 3, 4.6, 150.0));
-        database.add(new CityLocation("Quezon City", "High", 35, 6.9, 11.0));
-        database.add(new CityLocation("Roxas City", "Low", 4, 4.7, 110.0));
-        database.add(new CityLocation("San Jose del Monte City", "Moderate", 22, 6.0, 27.0));
-        database.add(new CityLocation("San Pablo City", "Moderate", 18, 6.1, 30.0));
-        database.add(new CityLocation("Tacloban City", "Moderate", 20, 6.3, 28.0));
-        database.add(new CityLocation("Tagbilaran City", "Moderate", 17, 6.0, 33.0));
-        database.add(new CityLocation("Taguig City", "High", 28, 6.5, 14.0));
-        database.add(new CityLocation("Tagum City", "Moderate", 15, 5.8, 36.0));
-        database.add(new CityLocation("Tarlac City", "Moderate", 19, 6.1, 25.0));
-        database.add(new CityLocation("Tuguegarao City", "Low", 10, 5.4, 65.0));
-        database.add(new CityLocation("Valenzuela City", "High", 30, 6.4, 15.0));
-        database.add(new CityLocation("Vigan City", "Moderate", 24, 6.2, 22.5));
-
-        sortDatabase();
-    }
-
-    private String validateRisk(String input) throws InvalidRiskLevelException {
-        for (String risk : allowedRiskLevels)
-            if (risk.equalsIgnoreCase(input)) return risk;
-        throw new InvalidRiskLevelException("Allowed: Low, Moderate, High only.");
+        database.add(new ProvinceLocation("Abra", "Moderate", 25, 6.3, 22.0, 17.5951, 120.7983));
+        database.add(new ProvinceLocation("Albay", "High", 42, 6.9, 12.5, 13.1775, 123.5280));
+        database.add(new CityLocation("Angeles City", "Moderate", 19, 6.0, 28.0, 15.1450, 120.5887));
+        database.add(new CityLocation("Antipolo City", "High", 31, 6.7, 10.0, 14.5860, 121.1760));
+        database.add(new ProvinceLocation("Antique", "Moderate", 22, 6.1, 35.0, 11.3683, 122.0645));
+        database.add(new CityLocation("Bacolod City", "Moderate", 18, 5.8, 40.0, 10.6765, 122.9509));
+        database.add(new CityLocation("Batangas City", "High", 38, 6.5, 14.0, 13.7565, 121.0583));
+        database.add(new CityLocation("Cagayan de Oro City", "Low", 6, 4.9, 80.0, 8.4542, 124.6319));
+        database.add(new CityLocation("Caloocan City", "High", 30, 6.6, 11.5, 14.6507, 120.9676));
+        database.add(new CityLocation("Cebu City", "Moderate", 20, 6.0, 34.0, 10.3157, 123.8854));
+        database.add(new CityLocation("Davao City", "Moderate", 18, 6.2, 30.0, 7.1907, 125.4553));
+        database.add(new CityLocation("Dagupan City", "Moderate", 27, 6.4, 26.0, 16.0433, 120.3333));
+        database.add(new CityLocation("Dasmariñas City", "Moderate", 21, 6.2, 20.0, 14.3294, 120.9367));
+        database.add(new CityLocation("General Santos City", "Moderate", 15, 5.9, 37.0, 6.1164, 125.1716));
+        database.add(new ProvinceLocation("Ilocos Region", "Moderate", 29, 6.3, 24.0, 16.0832, 120.6200));
+        database.add(new CityLocation("Ilagan City", "Moderate", 17, 6.0, 32.0, 17.1485, 121.8893));
+        database.add(new CityLocation("Kalibo City", "Low", 5, 4.8, 90.0, 11.7069, 122.3676));
+        database.add(new CityLocation("Laoag City", "Low", 8, 5.0, 70.0, 18.1978, 120.5936));
+        database.add(new CityLocation("Las Piñas City", "High", 33, 6.8, 13.5, 14.4445, 120.9939));
+        database.add(new CityLocation("Legazpi City", "High", 45, 7.0, 10.0, 13.1391, 123.7438));
+        database.add(new CityLocation("Manila", "High", 56, 7.1, 15.5, 14.5995, 120.9842));
+        database.add(new CityLocation("Makati City", "High", 34, 6.6, 14.0, 14.5547, 121.0244));
+        database.add(new CityLocation("Marikina City", "High", 36, 6.7, 9.0, 14.6507, 121.1029));
+        database.add(new CityLocation("Masbate City", "High", 40, 6.8, 18.0, 12.3700, 123.6200));
+        database.add(new CityLocation("Muntinlupa City", "High", 32, 6.5, 16.0, 14.4081, 121.0415));
+        database.add(new CityLocation("Naga City", "Moderate", 23, 6.1, 25.0, 13.6218, 123.1948));
+        database.add(new CityLocation("Olongapo City", "Moderate", 20, 6.2, 29.0, 14.8292, 120.2828));
+        database.add(new CityLocation("Pagadian City", "Moderate", 16, 5.9, 38.0, 7.8257, 123.4370));
+        database.add(new CityLocation("Parañaque City", "High", 31, 6.4, 17.0, 14.4793, 121.0198));
+        database.add(new CityLocation("Pasig City", "High", 30, 6.5, 12.0, 14.5764, 121.0851));
+        database.add(new CityLocation("Puerto Princesa City", "Low", 3, 4.6, 150.0, 9.7392, 118.7353));
+        database.add(new CityLocation("Quezon City", "High", 35, 6.9, 11.0, 14.6760, 121.0437));
+        database.add(new CityLocation("Roxas City", "Low", 4, 4.7, 110.0, 11.5853, 122.7511));
+        database.add(new CityLocation("San Jose del Monte City", "Moderate", 22, 6.0, 27.0, 14.8139, 121.0453));
+        database.add(new CityLocation("San Pablo City", "Moderate", 18, 6.1, 30.0, 14.0683, 121.3256));
+        database.add(new CityLocation("Tacloban City", "Moderate", 20, 6.3, 28.0, 11.2444, 125.0039));
+        database.add(new CityLocation("Tagbilaran City", "Moderate", 17, 6.0, 33.0, 9.6500, 123.8500));
+        database.add(new CityLocation("Taguig City", "High", 28, 6.5, 14.0, 14.5176, 121.0509));
+        database.add(new CityLocation("Tagum City", "Moderate", 15, 5.8, 36.0, 7.4478, 125.8078));
+        database.add(new CityLocation("Tarlac City", "Moderate", 19, 6.1, 25.0, 15.4755, 120.5963));
+        database.add(new CityLocation("Tuguegarao City", "Low", 10, 5.4, 65.0, 17.6132, 121.7270));
+        database.add(new CityLocation("Valenzuela City", "High", 30, 6.4, 15.0, 14.7011, 120.9830));
+        database.add(new CityLocation("Vigan City", "Moderate", 24, 6.2, 22.5, 17.5747, 120.3869));
     }
 
     private void addLocation() {
@@ -130,25 +3210,40 @@ public class QuakeGuard {
             System.out.print("\nEnter Location Name: ");
             String name = scanner.nextLine().trim();
             System.out.print("Enter Risk Level (Low/Moderate/High): ");
-            String risk = validateRisk(scanner.nextLine());
+            RiskLevel risk = RiskLevel.parse(scanner.nextLine());
             System.out.print("Historical Earthquakes: ");
             int quakes = Integer.parseInt(scanner.nextLine());
             System.out.print("Last Major Magnitude: ");
             double mag = Double.parseDouble(scanner.nextLine());
             System.out.print("Distance to Fault Line (km): ");
             double dist = Double.parseDouble(scanner.nextLine());
-            database.add(new CityLocation(name, risk, quakes, mag, dist));
-            sortDatabase();
+            System.out.print("Latitude (blank if unknown): ");
+            String lat = scanner.nextLine().trim();
+            double latitude = lat.isEmpty() ? Double.NaN : Double.parseDouble(lat);
+            double longitude = Double.NaN;
+            if (!lat.isEmpty()) {
+                System.out.print("Longitude: ");
+                longitude = Double.parseDouble(scanner.nextLine().trim());
+                if (!LocationGrid.isValid(latitude, longitude)) {
+                    System.out.println("Error: Coordinates out of range.");
+                    return;
+                }
+            }
+            Location loc = new CityLocation(name, risk, quakes, mag, dist, latitude, longitude);
+            journal.append(loc);
+            database.add(loc);
             System.out.println("Location added successfully!");
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
         }
     }
 
+    // Exact match first; otherwise accept a prefix that identifies exactly one location.
     private Location search(String name) {
-        for (Location loc : database)
-            if (loc.getName().equalsIgnoreCase(name)) return loc;
-        return null;
+        Location exact = database.find(name);
+        if (exact != null) return exact;
+        List<Location> matches = database.startingWith(name, 2);
+        return matches.size() == 1 ? matches.get(0) : null;
     }
 
     private void searchLocation() {
@@ -159,44 +3254,83 @@ public class QuakeGuard {
         Location loc = search(name);
         if (loc != null) {
             System.out.println(loc.getDetails());
-            showPreparednessTips(loc.getRiskLevel());
+            float score = RiskScorer.score(loc.getHistoricalQuakes(), loc.getLastMagnitude(), loc.getDistanceToFaultLineKm());
+            System.out.printf("Computed Risk Score: %.1f / 100 (%s)%n", score, RiskScorer.levelOf(score).getLabel());
+            int id = database.idOf(loc.getName());
+            showPreparednessTips(loc.getRisk(), id < 0 ? 0 : forecaster.expected(id, FORECAST_HORIZON));
         } else {
             System.out.println("Location not found.");
+            List<Location> suggestions = name.isEmpty() ? List.of() : database.startingWith(name, MAX_SUGGESTIONS);
+            if (!suggestions.isEmpty()) {
+                System.out.println("Did you mean:");
+                for (Location s : suggestions) System.out.println("- " + s.getName());
+            }
         }
     }
 
     private void filterByRisk() {
         try {
             System.out.print("\nEnter risk level to filter (Low/Moderate/High): ");
-            String risk = validateRisk(scanner.nextLine());
-            System.out.println("\nLocations with Risk Level [" + risk + "]:");
-            for (Location loc : database)
-                if (loc.getRiskLevel().equalsIgnoreCase(risk))
-                    System.out.println("- " + loc.getName());
+            RiskLevel risk = RiskLevel.parse(scanner.nextLine());
+            System.out.println("\nLocations with Risk Level [" + risk.getLabel() + "] (" + database.countByRisk(risk) + "):");
+            database.forEachRowWithRisk(risk, (name, level) -> System.out.println("- " + name));
+            System.out.println("Locations computed as [" + risk.getLabel() + "] from quake data: " + database.countByComputedRisk(risk));
         } catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
         }
     }
 
+    private void findNearby() {
+        try {
+            System.out.print("\nEpicenter latitude: ");
+            double latitude = Double.parseDouble(scanner.nextLine().trim());
+            System.out.print("Epicenter longitude: ");
+            double longitude = Double.parseDouble(scanner.nextLine().trim());
+            if (!LocationGrid.isValid(latitude, longitude)) {
+                System.out.println("Error: Coordinates out of range.");
+                return;
+            }
+            System.out.print("Radius in km (blank for the " + NEAREST_COUNT + " nearest): ");
+            String radius = scanner.nextLine().trim();
+
+            List<Location> found;
+            if (radius.isEmpty()) {
+                found = database.nearest(latitude, longitude, NEAREST_COUNT);
+                System.out.println("\nNearest Locations:");
+            } else {
+                found = database.within(latitude, longitude, Double.parseDouble(radius));
+                System.out.println("\nLocations within " + radius + " km (" + found.size() + "):");
+            }
+            for (Location loc : found) {
+                double km = LocationGrid.distanceKm(latitude, longitude, loc.getLatitude(), loc.getLongitude());
+                System.out.printf("- %s (%s) %.1f km%n", loc.getName(), loc.getRiskLevel(), km);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Error: Please enter numeric values.");
+        }
+    }
+
     private void listAll() {
         System.out.println("\nAll Locations (Alphabetical):");
-        for (Location loc : database)
-            System.out.println("- " + loc.getName() + " (" + loc.getRiskLevel() + ")");
+        database.forEachRow((name, risk) -> System.out.println("- " + name + " (" + risk.getLabel() + ")"));
     }
 
-    private void showPreparednessTips(String risk) {
+    // Tips escalate to the high-risk set, plus aftershock advice, while the
+    // forecast for the location is high.
+    private void showPreparednessTips(RiskLevel risk, double expectedAftershocks) {
+        boolean escalated = expectedAftershocks >= ESCALATE_AFTERSHOCKS;
+        if (escalated) {
+            System.out.printf("%nAftershock Advisory: about %.1f M%.1f+ aftershock(s) expected within %s.%n",
+                    expectedAftershocks, AftershockForecaster.TARGET_MAGNITUDE,
+                    AftershockForecaster.HORIZON_LABELS[FORECAST_HORIZON]);
+        }
         System.out.println("\nPreparedness Tips:");
-        if (risk.equalsIgnoreCase("High") || risk.equalsIgnoreCase("Moderate")) {
-            System.out.println("- Keep a Go-Bag ready (food, water, medicine).");
-            System.out.println("- Know safe spots in your home.");
-            System.out.println("- Secure heavy objects and join drills.");
-        } else {
-            System.out.println("- Stay alert and aware of PHIVOLCS updates.");
+        if (escalated) {
+            System.out.println("- Stay out of damaged buildings; strong aftershocks can bring them down.");
+            System.out.println("- Drop, Cover, and Hold On at every aftershock.");
+            System.out.println("- Keep your Go-Bag by the door and follow PHIVOLCS aftershock bulletins.");
         }
-    }
-
-    private void sortDatabase() {
-        database.sort(Comparator.comparing(l -> l.getName().toLowerCase()));
+        for (String tip : (escalated ? RiskLevel.HIGH : risk).getPreparednessTips()) System.out.println("- " + tip);
     }
 
     private void mainMenu() {
@@ -208,7 +3342,14 @@ public class QuakeGuard {
                 System.out.println("2. Add New Location");
                 System.out.println("3. View All Locations");
                 System.out.println("4. Filter by Risk Level");
-                System.out.println("5. Exit");
+                System.out.println("5. Import Locations from File");
+                System.out.println("6. Find Locations Near an Epicenter");
+                System.out.println("7. Live Quake Feed");
+                System.out.println("8. Top Rankings");
+                System.out.println("9. Damage Scenario Simulation");
+                System.out.println("10. Earthquake Catalog");
+                System.out.println("11. Export Nationwide Report");
+                System.out.println("12. Exit");
                 System.out.print("Enter your choice: ");
                 String input = scanner.nextLine().trim();
                 if (input.isEmpty()) continue;
@@ -219,17 +3360,285 @@ public class QuakeGuard {
                     case 2 -> addLocation();
                     case 3 -> listAll();
                     case 4 -> filterByRisk();
-                    case 5 -> System.out.println("Exiting... Stay safe!");
+                    case 5 -> importLocations();
+                    case 6 -> findNearby();
+                    case 7 -> manageFeed();
+                    case 8 -> showRankings();
+                    case 9 -> simulateScenario();
+                    case 10 -> catalogMenu();
+                    case 11 -> exportReport();
+                    case 12 -> {
+                        if (feed != null) feed.stop();
+                        saveSnapshot();
+                        System.out.println("Exiting... Stay safe!");
+                    }
                     default -> System.out.println("Invalid choice!");
                 }
             } catch (InputMismatchException | NumberFormatException e) {
                 System.out.println("Invalid input. Please enter a number.");
                 scanner.nextLine();
             }
-        } while (choice != 5);
+        } while (choice != 12);
     }
 
-    public static void main(String[] args) {
-        new QuakeGuard().mainMenu();
+    private void showRankings() {
+        try {
+            Ranking[] rankings = Ranking.values();
+            System.out.println();
+            for (int i = 0; i < rankings.length; i++) System.out.println((i + 1) + ". " + rankings[i].getLabel());
+            System.out.print("Choose a ranking: ");
+            Ranking ranking = rankings[Integer.parseInt(scanner.nextLine().trim()) - 1];
+            System.out.print("How many (blank for " + TOP_COUNT + "): ");
+            String count = scanner.nextLine().trim();
+            int k = count.isEmpty() ? TOP_COUNT : Integer.parseInt(count);
+
+            System.out.println("\n" + ranking.getLabel() + ":");
+            int rank = 1;
+            for (Location loc : database.top(ranking, k)) {
+                String value = switch (ranking) {
+                    case MAGNITUDE -> String.format("magnitude %.1f", loc.getLastMagnitude());
+                    case QUAKES -> loc.getHistoricalQuakes() + " earthquakes";
+                    case FAULT_PROXIMITY -> String.format("%.1f km from a fault line", loc.getDistanceToFaultLineKm());
+                    case RISK_SCORE -> String.format("score %.1f", RiskScorer.score(loc.getHistoricalQuakes(),
+                            loc.getLastMagnitude(), loc.getDistanceToFaultLineKm()));
+                };
+                System.out.println(rank++ + ". " + loc.getName() + " - " + value);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Invalid choice!");
+        }
+    }
+
+    private void exportReport() {
+        System.out.print("\nReport file (.csv, .jsonl or .txt): ");
+        String path = scanner.nextLine().trim();
+        if (path.isEmpty()) return;
+        System.out.print("Format parallel partitions? (y/n): ");
+        boolean parallel = scanner.nextLine().trim().equalsIgnoreCase("y");
+        Path file = Path.of(path);
+        try {
+            long start = System.nanoTime();
+            long bytes = RiskReport.write(file, database, RiskReport.Format.forFile(file), parallel);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("Wrote %d location(s), %.1f MB, to %s in %d ms.%n", database.size(), bytes / 1e6, file, millis);
+        } catch (IOException e) {
+            System.out.println("Error writing " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void catalogMenu() {
+        System.out.println("\nCatalog: " + catalog.size() + " event(s).");
+        System.out.println("1. Import Events from File");
+        System.out.println("2. List Events in a Time Window");
+        System.out.println("3. Fit Gutenberg-Richter");
+        System.out.print("Enter your choice: ");
+        try {
+            switch (scanner.nextLine().trim()) {
+                case "1" -> {
+                    System.out.print("Path to event file (time,location,magnitude): ");
+                    importEvents(Path.of(scanner.nextLine().trim()));
+                }
+                case "2" -> listEvents();
+                case "3" -> fitGutenbergRichter();
+                default -> System.out.println("Invalid choice!");
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    private void importEvents(Path file) {
+        try {
+            long start = System.nanoTime();
+            LocationImporter.Report report = catalog.importFile(file, database);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Imported " + report.getImported() + " event(s) in " + millis + " ms; rejected "
+                    + report.getRejected() + ".");
+            for (String error : report.getErrors()) System.out.println("  " + error);
+        } catch (IOException e) {
+            System.out.println("Error reading " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void listEvents() {
+        long[] window = readWindow();
+        System.out.print("Minimum magnitude (blank for any): ");
+        String min = scanner.nextLine().trim();
+        double minMagnitude = min.isEmpty() ? Double.NEGATIVE_INFINITY : Double.parseDouble(min);
+        int locationId = readCatalogLocation();
+        if (locationId == -2) return;
+
+        int total = catalog.count(window[0], window[1], minMagnitude, Double.POSITIVE_INFINITY, locationId);
+        System.out.println("\n" + total + " event(s)" + (total > CATALOG_ROWS ? ", first " + CATALOG_ROWS + ":" : ":"));
+        int[] shown = {0};
+        catalog.forEach(window[0], window[1], minMagnitude, Double.POSITIVE_INFINITY, locationId, (time, magnitude, id) -> {
+            if (shown[0]++ < CATALOG_ROWS)
+                System.out.printf("%s  M%.1f  %s%n", Instant.ofEpochMilli(time), magnitude, database.get(id).getName());
+        });
+    }
+
+    private void fitGutenbergRichter() {
+        long[] window = readWindow();
+        int locationId = readCatalogLocation();
+        if (locationId == -2) return;
+        QuakeCatalog.GutenbergRichter fit = catalog.fit(window[0], window[1], locationId);
+        if (fit == null) {
+            System.out.println("Not enough events above the completeness magnitude to fit.");
+            return;
+        }
+        System.out.printf("%nGutenberg-Richter fit over %d event(s) with M >= %.1f:%n", fit.getEvents(), fit.getCompleteness());
+        System.out.printf("a = %.2f (per year), b = %.2f +/- %.2f%n", fit.getA(), fit.getB(), fit.getBError());
+        for (double magnitude = 5; magnitude <= 7; magnitude++)
+            System.out.printf("Expected M%.0f+ per year: %.3f%n", magnitude, fit.yearlyRate(magnitude));
+    }
+
+    // {from, to} in epoch millis; blank bounds are open.
+    private long[] readWindow() {
+        System.out.print("From date (YYYY-MM-DD, blank for the start): ");
+        String from = scanner.nextLine().trim();
+        System.out.print("To date, exclusive (blank for now): ");
+        String to = scanner.nextLine().trim();
+        return new long[] {
+                from.isEmpty() ? Long.MIN_VALUE : QuakeCatalog.parseTime(from),
+                to.isEmpty() ? Long.MAX_VALUE : QuakeCatalog.parseTime(to)
+        };
+    }
+
+    // Location id, -1 for all locations, or -2 if the name is unknown.
+    private int readCatalogLocation() {
+        System.out.print("Location (blank for all): ");
+        String name = scanner.nextLine().trim();
+        if (name.isEmpty()) return -1;
+        int id = database.idOf(name);
+        if (id < 0) System.out.println("Location not found.");
+        return id < 0 ? -2 : id;
+    }
+
+    private void simulateScenario() {
+        try {
+            System.out.print("\nScenario magnitude: ");
+            double magnitude = Double.parseDouble(scanner.nextLine().trim());
+            System.out.print("Trials per location (blank for " + SCENARIO_TRIALS + "): ");
+            String count = scanner.nextLine().trim();
+            int trials = count.isEmpty() ? SCENARIO_TRIALS : Integer.parseInt(count);
+            if (magnitude <= 0 || magnitude > 10 || trials <= 0) {
+                System.out.println("Error: Magnitude must be in (0, 10] and trials positive.");
+                return;
+            }
+
+            long start = System.nanoTime();
+            ScenarioSimulator.Result result = ScenarioSimulator.run(database.exposure(), magnitude, trials, System.nanoTime());
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("%nMagnitude %.1f scenario: %d trial(s) x %d location(s) in %d ms.%n",
+                    magnitude, trials, result.size(), millis);
+
+            System.out.printf("%-28s %10s %10s %8s%n", "Location", "PGA>=0.1g", "PGA>=0.3g", "Damage");
+            for (int id : result.mostDamaged(SCENARIO_ROWS)) {
+                System.out.printf("%-28s %9.1f%% %9.1f%% %7.1f%%%n", database.get(id).getName(),
+                        100 * result.exceedance(0, id), 100 * result.exceedance(1, id), 100 * result.damage(id));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    private void manageFeed() {
+        if (feed != null) {
+            System.out.println("\nLive feed: " + feed.getApplied() + " event(s) applied, " + feed.getUnknown()
+                    + " for unknown locations, " + feed.getMalformed() + " malformed.");
+            System.out.print("Stop the feed? (y/n): ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                feed.stop();
+                System.out.println("Feed stopped.");
+                stoppedFeedEvents += feed.getApplied();
+                feed = null;
+            }
+            return;
+        }
+        System.out.print("\nEvent file to tail, or a port number for a socket feed: ");
+        startFeed(scanner.nextLine().trim());
+    }
+
+    // Events are "name,magnitude" lines.
+    private void startFeed(String source) {
+        if (source.isEmpty()) return;
+        QuakeEventFeed started = new QuakeEventFeed(database, catalog);
+        try {
+            if (source.chars().allMatch(Character::isDigit)) {
+                started.listen(Integer.parseInt(source));
+                System.out.println("Listening for quake events on localhost:" + source);
+            } else {
+                started.tail(Path.of(source));
+                System.out.println("Tailing quake events from " + source);
+            }
+            feed = started;
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Error starting feed: " + e.getMessage());
+        }
+    }
+
+    // Folds journaled additions and live feed updates into a fresh snapshot so
+    // the next start maps one file.
+    private void saveSnapshot() {
+        long feedEvents = stoppedFeedEvents + (feed == null ? 0 : feed.getApplied());
+        if (journal.getEntries() == 0 && feedEvents == 0) return;
+        if (keepSavedFiles) {
+            System.out.println("Not saving a snapshot: " + SNAPSHOT_FILE + " or " + JOURNAL_FILE + " is damaged and still in place.");
+            return;
+        }
+        try {
+            LocationSnapshot.write(SNAPSHOT_FILE, database, journal.position());
+            journal.rotate();
+        } catch (IOException e) {
+            System.out.println("Error saving snapshot (additions stay in " + JOURNAL_FILE + "): " + e.getMessage());
+        }
+    }
+
+    private void importLocations() {
+        System.out.print("\nEnter CSV/TSV file to import: ");
+        String path = scanner.nextLine().trim();
+        if (path.isEmpty()) return;
+        importLocations(Path.of(path));
+    }
+
+    private void importLocations(Path file) {
+        try {
+            long start = System.nanoTime();
+            LocationImporter.Report report = new LocationImporter().importFile(file, batch -> {
+                try {
+                    journal.appendAll(batch);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                database.addAll(batch);
+            });
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Imported " + report.getImported() + " location(s), rejected "
+                    + report.getRejected() + " line(s) in " + elapsedMs + " ms.");
+            for (String error : report.getErrors()) System.out.println("- " + error);
+            if (report.getRejected() > report.getErrors().size())
+                System.out.println("- ... " + (report.getRejected() - report.getErrors().size()) + " more");
+        } catch (NoSuchFileException e) {
+            System.out.println("File not found: " + file);
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error importing file: " + e.getMessage());
+        }
+    }
+
+    // java QuakeGuard [--columnar] [--import locations.csv ...] [--feed events.log|port] [--catalog events.csv]
+    // java QuakeGuard --stress [--columnar]
+    public static void main(String[] args) throws InterruptedException {
+        boolean columnar = Arrays.asList(args).contains("--columnar");
+        if (Arrays.asList(args).contains("--stress")) {
+            if (!new LocationStoreStress(columnar).run()) System.exit(1);
+            return;
+        }
+        QuakeGuard app = new QuakeGuard(columnar ? new LocationStore(new ColumnarLocationRows()) : new LocationStore());
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--import")) app.importLocations(Path.of(args[++i]));
+            else if (args[i].equals("--feed")) app.startFeed(args[++i]);
+            else if (args[i].equals("--catalog")) app.importEvents(Path.of(args[++i]));
+        }
+        app.mainMenu();
     }
 }
@@ -1,5 +1,24 @@
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 // ===== ABSTRACT CLASS (Abstraction) =====
 abstract class UsageCategory {
@@ -89,36 +108,2590 @@ class Irrigation extends UsageCategory {
 
 // ===== ENCAPSULATION + DATA MODEL =====
 class WaterUsage {
+    private String householdId;
+    private String meterId;
     private String date;
     private UsageCategory[] categories;
 
     public WaterUsage(String date, UsageCategory[] categories) {
+        this("", "", date, categories);
+    }
+
+    // Empty ids mean the single-household usage.txt/usage.bin in the working directory.
+    public WaterUsage(String householdId, String meterId, String date, UsageCategory[] categories) {
+        this.householdId = householdId;
+        this.meterId = meterId;
         this.date = date;
         this.categories = categories;
     }
 
-    public String getDate() {
-        return date;
+    public String getHouseholdId() {
+        return householdId;
+    }
+
+    public String getMeterId() {
+        return meterId;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public UsageCategory[] getCategories() {
+        return categories;
+    }
+
+    public float getTotalUsage() {
+        float total = 0;
+        for (UsageCategory c : categories) {
+            total += c.calculateUsage();
+        }
+        return total;
+    }
+
+    // Liters in category order: shower, laundry, dishwashing, toilet, irrigation.
+    public static WaterUsage of(String date, float[] liters) {
+        UsageCategory[] categories = {
+            new Shower(liters[0]),
+            new Laundry(liters[1]),
+            new Dishwashing(liters[2]),
+            new Toilet(liters[3]),
+            new Irrigation(liters[4])
+        };
+        return new WaterUsage(date, categories);
+    }
+
+    public float[] getLiters() {
+        float[] liters = new float[categories.length];
+        for (int i = 0; i < liters.length; i++) liters[i] = categories[i].getLitersUsed();
+        return liters;
+    }
+}
+
+// ===== USAGE LINE PARSER =====
+// One parsed usage line, reused from line to line so reading a log does not
+// allocate per record. The household and date stay as byte ranges in the
+// source buffer and are only decoded on request, while the buffer is valid
+// (during the LineHandler call).
+class UsageRecord {
+    public final float[] liters = new float[BinaryUsageLog.CATEGORIES];
+    public int epochDay;      // UsageLineParser.NO_DAY when the date is not YYYY-MM-DD
+    public long lineNumber;   // 1-based, counted from where reading started
+    public long offset;       // byte offset of the line in its file
+    public boolean valid;
+    public int errorColumn;   // 1-based column of the first problem when !valid
+    public String error;
+
+    ByteBuffer source;
+    int lineStart;
+    int householdFrom = -1, householdTo = -1;
+    int dateFrom, dateTo;
+
+    public boolean hasHousehold() {
+        return householdFrom >= 0;
+    }
+
+    public String household() {
+        return hasHousehold() ? text(householdFrom, householdTo) : "";
+    }
+
+    public boolean householdEquals(byte[] key) {
+        if (!hasHousehold() || key.length != householdTo - householdFrom) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (source.get(householdFrom + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    public String date() {
+        return text(dateFrom, dateTo);
+    }
+
+    public float total() {
+        float total = 0;
+        for (float l : liters) total += l;
+        return total;
+    }
+
+    public String describeError() {
+        return "Line " + lineNumber + ", column " + errorColumn + ": " + error;
+    }
+
+    private String text(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        source.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Hand-rolled reader for usage lines, "date,shower,laundry,dishwashing,toilet,
+// irrigation" with an optional leading household id. Fields are decoded straight
+// from the bytes into a UsageRecord; a malformed line is reported with the
+// column of its first bad field rather than throwing.
+class UsageLineParser {
+    public static final int NO_DAY = Integer.MIN_VALUE;
+    private static final int CATEGORIES = BinaryUsageLog.CATEGORIES;
+    private static final int MAX_FIELDS = CATEGORIES + 2;
+
+    public interface LineHandler {
+        void line(UsageRecord record) throws IOException;
+    }
+
+    // A line as [from, to) of `buffer`, valid only during the call; `offset`
+    // is where it starts in the input.
+    public interface RawLineHandler {
+        void line(ByteBuffer buffer, int from, int to, long offset) throws IOException;
+    }
+
+    // Parses the line in [from, to) of `b` (no line terminator) into `r`.
+    public static boolean parse(ByteBuffer b, int from, int to, UsageRecord r) {
+        r.source = b;
+        r.lineStart = from;
+        r.epochDay = NO_DAY;
+        r.householdFrom = r.householdTo = -1;
+        r.valid = false;
+        int fields = 1, extraComma = -1;
+        for (int i = from; i < to; i++) {
+            if (b.get(i) != ',') continue;
+            if (++fields > MAX_FIELDS && extraComma < 0) extraComma = i;
+        }
+        if (fields < CATEGORIES + 1) return fail(r, to, "expected " + (CATEGORIES + 1) + " fields, found " + fields);
+        if (extraComma >= 0) return fail(r, extraComma, "too many fields");
+
+        int field = from, end = nextComma(b, field, to);
+        if (fields == MAX_FIELDS) {
+            r.householdFrom = trimStart(b, field, end);
+            r.householdTo = trimEnd(b, r.householdFrom, end);
+            if (r.householdFrom == r.householdTo) return fail(r, field, "missing household id");
+            field = end + 1;
+            end = nextComma(b, field, to);
+        }
+        r.dateFrom = trimStart(b, field, end);
+        r.dateTo = trimEnd(b, r.dateFrom, end);
+        if (r.dateFrom == r.dateTo) return fail(r, field, "missing date");
+        r.epochDay = parseDay(b, r.dateFrom, r.dateTo);
+        for (int c = 0; c < CATEGORIES; c++) {
+            field = end + 1;
+            end = nextComma(b, field, to);
+            float value = parseFloat(b, field, end);
+            if (Float.isNaN(value) || Float.isInfinite(value)) return fail(r, field, "invalid number");
+            r.liters[c] = value;
+        }
+        r.valid = true;
+        return true;
+    }
+
+    // Reads the lines starting in [from, to) of `channel`, skipping blank ones,
+    // and returns the offset just past the last complete line. An unterminated
+    // last line is handed over only if `includeUnterminated` is set.
+    public static long read(FileChannel channel, long from, long to, boolean includeUnterminated,
+                            LineHandler handler) throws IOException {
+        UsageRecord record = new UsageRecord();
+        channel.position(from);
+        return from + lines(channel, to - from, includeUnterminated, (buffer, start, end, offset) -> {
+            record.lineNumber++;
+            if (trimStart(buffer, start, end) == end) return;
+            record.offset = from + offset;
+            parse(buffer, start, end, record);
+            handler.line(record);
+        });
+    }
+
+    public static long read(Path file, boolean includeUnterminated, LineHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel, 0, channel.size(), includeUnterminated, handler);
+        }
+    }
+
+    // Splits up to `limit` bytes of `in` into lines through one reusable
+    // buffer, dropping "\n" or "\r\n", and returns the number of bytes up to
+    // the end of the last complete line. An unterminated last line is handed
+    // over only if `includeUnterminated` is set.
+    public static long lines(ReadableByteChannel in, long limit, boolean includeUnterminated,
+                             RawLineHandler handler) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long bufferStart = 0, read = 0;
+        int scanned = 0;
+        while (read < limit) {
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+            buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + (limit - read)));
+            int n = in.read(buffer);
+            if (n <= 0) break;
+            read += n;
+            int end = buffer.position(), lineStart = 0;
+            for (int i = scanned; i < end; i++) {
+                if (buffer.get(i) != '\n') continue;
+                int lineEnd = i > lineStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                handler.line(buffer, lineStart, lineEnd, bufferStart + lineStart);
+                lineStart = i + 1;
+            }
+            buffer.limit(end).position(lineStart);
+            buffer.compact();
+            bufferStart += lineStart;
+            scanned = end - lineStart;
+        }
+        int rest = buffer.position();
+        if (includeUnterminated && rest > 0) {
+            handler.line(buffer, 0, buffer.get(rest - 1) == '\r' ? rest - 1 : rest, bufferStart);
+            return bufferStart + rest;
+        }
+        return bufferStart;
+    }
+
+    private static boolean fail(UsageRecord r, int at, String error) {
+        r.errorColumn = at - r.lineStart + 1;
+        r.error = error;
+        return false;
+    }
+
+    private static int nextComma(ByteBuffer b, int from, int to) {
+        while (from < to && b.get(from) != ',') from++;
+        return from;
+    }
+
+    private static int trimStart(ByteBuffer b, int from, int to) {
+        while (from < to && (b.get(from) == ' ' || b.get(from) == '\t')) from++;
+        return from;
+    }
+
+    private static int trimEnd(ByteBuffer b, int from, int to) {
+        while (to > from && (b.get(to - 1) == ' ' || b.get(to - 1) == '\t')) to--;
+        return to;
+    }
+
+    // Epoch day of a YYYY-MM-DD field (surrounding spaces allowed), or NO_DAY.
+    static int parseDay(ByteBuffer b, int from, int to) {
+        while (from < to && b.get(from) == ' ') from++;
+        while (to > from && b.get(to - 1) == ' ') to--;
+        if (to - from != 10 || b.get(from + 4) != '-' || b.get(from + 7) != '-') return NO_DAY;
+        int year = digits(b, from, from + 4), month = digits(b, from + 5, from + 7), day = digits(b, from + 8, from + 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) return NO_DAY;
+        // Days from civil date (proleptic Gregorian), with the year starting in March.
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2) return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    static int digits(ByteBuffer b, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int d = b.get(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    // Every power here is exact as a float (5^10 < 2^24).
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    // Parses a decimal such as 12.5, -3 or 1.2E7 without allocating; returns
+    // NaN if the field is not a number. When the significant digits fit a
+    // float exactly (below 2^24) and the power of ten does too, one float
+    // multiply or divide gives the correctly rounded result, the same as
+    // Float.parseFloat; anything else goes through Float.parseFloat itself.
+    // (Going through double first would round twice.)
+    static float parseFloat(ByteBuffer b, int from, int to) {
+        while (from < to && b.get(from) == ' ') from++;
+        while (to > from && b.get(to - 1) == ' ') to--;
+        if (from == to) return Float.NaN;
+        int i = from;
+        boolean negative = b.get(i) == '-';
+        if (negative || b.get(i) == '+') i++;
+        long mantissa = 0;
+        int scale = 0, digits = 0;
+        boolean point = false, exact = true, sawDigit = false;
+        for (; i < to; i++) {
+            byte c = b.get(i);
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digits++;
+                    if (point) scale--;
+                } else {
+                    exact = false;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!sawDigit) return slowFloat(b, from, to);
+        if (i < to && (b.get(i) == 'e' || b.get(i) == 'E')) {
+            int e = ++i;
+            boolean negExp = e < to && b.get(e) == '-';
+            if (negExp || (e < to && b.get(e) == '+')) e++;
+            if (e == to) return Float.NaN;
+            int exponent = 0;
+            for (i = e; i < to; i++) {
+                int d = b.get(i) - '0';
+                if (d < 0 || d > 9 || exponent > 1000) return slowFloat(b, from, to);
+                exponent = exponent * 10 + d;
+            }
+            scale += negExp ? -exponent : exponent;
+        }
+        if (i != to || !exact) return slowFloat(b, from, to);
+        while (mantissa != 0 && mantissa % 10 == 0 && scale < 0) {
+            mantissa /= 10; // 12.50 is 125e-1
+            scale++;
+        }
+        if (mantissa >= (1 << 24) || scale < -10 || scale > 10) return slowFloat(b, from, to);
+        float value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    private static float slowFloat(ByteBuffer b, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        b.get(from, bytes);
+        try {
+            return Float.parseFloat(new String(bytes, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+}
+
+// ===== BINARY USAGE LOG =====
+// Fixed-width alternative to usage.txt. A 16-byte header (magic, version,
+// record size) is followed by one 28-byte little-endian record per day:
+// epoch day (int), the five category liters (float) and a CRC32 of those
+// 24 bytes. Reads map the file instead of parsing text; a torn last record
+// is ignored and records failing their CRC are skipped and counted.
+class BinaryUsageLog {
+    public static final int CATEGORIES = 5;
+    public static final int RECORD_BYTES = 4 + CATEGORIES * 4 + 4;
+    private static final int MAGIC = 0x57564231; // "WVB1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORDS_PER_MAP = (1 << 30) / RECORD_BYTES;
+
+    public interface RecordVisitor {
+        // `liters` is reused between records; copy it to keep it.
+        void visit(int epochDay, float[] liters);
+    }
+
+    public interface PositionedVisitor {
+        void visit(long record, int epochDay, float[] liters);
+    }
+
+    private final Path file;
+
+    public BinaryUsageLog(Path file) {
+        this.file = file;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public boolean exists() {
+        return Files.exists(file);
+    }
+
+    public long recordCount() throws IOException {
+        return exists() ? Math.max(0, (Files.size(file) - HEADER_BYTES) / RECORD_BYTES) : 0;
+    }
+
+    public void append(int epochDay, float[] liters) throws IOException {
+        ByteBuffer record = ByteBuffer.wrap(encodeRecord(epochDay, liters));
+        try (FileChannel channel = openForAppend()) {
+            while (record.hasRemaining()) channel.write(record);
+        }
+    }
+
+    // Opens the log positioned after its last whole record, creating it if needed.
+    FileChannel openForAppend() throws IOException {
+        FileChannel channel = open();
+        try {
+            channel.position(HEADER_BYTES + recordCountOf(channel) * RECORD_BYTES);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static byte[] encodeRecord(int epochDay, float[] liters) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        encode(epochDay, liters, record);
+        return record.array();
+    }
+
+    // Visits every intact record in file order and returns how many failed their CRC.
+    public long scan(RecordVisitor visitor) throws IOException {
+        return scan(0, Long.MAX_VALUE, (record, epochDay, liters) -> visitor.visit(epochDay, liters));
+    }
+
+    // Same as scan(visitor) but limited to records [from, to) and passing each record's number.
+    public long scan(long from, long to, PositionedVisitor visitor) throws IOException {
+        if (!exists()) return 0;
+        long corrupt = 0;
+        float[] liters = new float[CATEGORIES];
+        byte[] checked = new byte[RECORD_BYTES - 4];
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            checkHeader(channel);
+            long records = Math.min(to, recordCountOf(channel));
+            for (long first = from; first < records; first += RECORDS_PER_MAP) {
+                int count = (int) Math.min(RECORDS_PER_MAP, records - first);
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * RECORD_BYTES, (long) count * RECORD_BYTES);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0, at = 0; i < count; i++, at += RECORD_BYTES) {
+                    map.get(at, checked);
+                    crc.reset();
+                    crc.update(checked);
+                    if ((int) crc.getValue() != map.getInt(at + RECORD_BYTES - 4)) {
+                        corrupt++;
+                        continue;
+                    }
+                    for (int c = 0; c < CATEGORIES; c++) liters[c] = map.getFloat(at + 4 + c * 4);
+                    visitor.visit(first + i, map.getInt(at), liters);
+                }
+            }
+        }
+        return corrupt;
+    }
+
+    // Rewrites a text log (date,shower,laundry,dishwashing,toilet,irrigation per line)
+    // as this binary log, replacing any existing one. Returns the lines that
+    // could not be converted.
+    public List<String> convertFrom(Path textFile) throws IOException {
+        List<String> skipped = new ArrayList<>();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 4096).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            writeHeader(channel);
+            UsageLineParser.read(textFile, true, r -> {
+                if (!r.valid) {
+                    skipped.add(r.describeError());
+                } else if (r.hasHousehold()) {
+                    skipped.add("Line " + r.lineNumber + ", column 1: household lines are not part of this log");
+                } else if (r.epochDay == UsageLineParser.NO_DAY) {
+                    skipped.add("Line " + r.lineNumber + ", column " + (r.dateFrom - r.lineStart + 1)
+                            + ": date is not YYYY-MM-DD");
+                } else {
+                    if (buffer.remaining() < RECORD_BYTES) flush(buffer, channel);
+                    encode(r.epochDay, r.liters, buffer);
+                }
+            });
+            flush(buffer, channel);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return skipped;
+    }
+
+    private FileChannel open() throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) writeHeader(channel);
+            else checkHeader(channel);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static long recordCountOf(FileChannel channel) throws IOException {
+        return Math.max(0, (channel.size() - HEADER_BYTES) / RECORD_BYTES);
+    }
+
+    private static void encode(int epochDay, float[] liters, ByteBuffer out) {
+        int start = out.position();
+        out.putInt(epochDay);
+        for (int c = 0; c < CATEGORIES; c++) out.putFloat(liters[c]);
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), out.arrayOffset() + start, RECORD_BYTES - 4);
+        out.putInt((int) crc.getValue());
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(0).flip();
+        while (header.hasRemaining()) channel.write(header, header.position());
+        channel.position(HEADER_BYTES);
+    }
+
+    private void checkHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != RECORD_BYTES) {
+            throw new IOException(file + " is not a WaVer binary usage log.");
+        }
+    }
+}
+
+// ===== RUNNING AGGREGATES =====
+// Summary figures kept next to the usage log in <log>.stats so the summary
+// never rereads history. The sidecar remembers the size and modification time
+// of the log it describes; when either no longer matches, load() reports it
+// stale and the caller rebuilds it with one pass over the log.
+class UsageAggregates {
+    private static final int MAGIC = 0x57564153; // "WVAS"
+    private static final int VERSION = 1;
+    private static final int CATEGORIES = 5;
+
+    private long count;
+    private double total;
+    private double sumOfSquares; // of daily totals
+    private float minTotal, maxTotal;
+    private String minDate = "", maxDate = "";
+    private final double[] categoryTotals = new double[CATEGORIES];
+    private final float[] categoryMin = new float[CATEGORIES];
+    private final float[] categoryMax = new float[CATEGORIES];
+
+    public void add(String date, float[] liters) {
+        add(liters, date, null);
+    }
+
+    // Same as add(date, liters) for a parsed line; the date is only decoded
+    // when the day becomes the new lowest or highest.
+    public void add(UsageRecord record) {
+        add(record.liters, null, record);
+    }
+
+    private void add(float[] liters, String date, UsageRecord record) {
+        float dayTotal = 0;
+        for (int c = 0; c < CATEGORIES; c++) {
+            float l = liters[c];
+            dayTotal += l;
+            categoryTotals[c] += l;
+            if (count == 0 || l < categoryMin[c]) categoryMin[c] = l;
+            if (count == 0 || l > categoryMax[c]) categoryMax[c] = l;
+        }
+        if (count == 0 || dayTotal < minTotal) { minTotal = dayTotal; minDate = date != null ? date : record.date(); }
+        if (count == 0 || dayTotal > maxTotal) { maxTotal = dayTotal; maxDate = date != null ? date : record.date(); }
+        total += dayTotal;
+        sumOfSquares += (double) dayTotal * dayTotal;
+        count++;
+    }
+
+    public long getCount() { return count; }
+    public double getTotal() { return total; }
+    public double getAverage() { return count == 0 ? 0 : total / count; }
+    public float getMinTotal() { return minTotal; }
+    public float getMaxTotal() { return maxTotal; }
+    public String getMinDate() { return minDate; }
+    public String getMaxDate() { return maxDate; }
+    public double getCategoryTotal(int c) { return categoryTotals[c]; }
+    public float getCategoryMin(int c) { return categoryMin[c]; }
+    public float getCategoryMax(int c) { return categoryMax[c]; }
+
+    public void merge(UsageAggregates other) {
+        if (other.count == 0) return;
+        for (int c = 0; c < CATEGORIES; c++) {
+            categoryTotals[c] += other.categoryTotals[c];
+            if (count == 0 || other.categoryMin[c] < categoryMin[c]) categoryMin[c] = other.categoryMin[c];
+            if (count == 0 || other.categoryMax[c] > categoryMax[c]) categoryMax[c] = other.categoryMax[c];
+        }
+        if (count == 0 || other.minTotal < minTotal) { minTotal = other.minTotal; minDate = other.minDate; }
+        if (count == 0 || other.maxTotal > maxTotal) { maxTotal = other.maxTotal; maxDate = other.maxDate; }
+        total += other.total;
+        sumOfSquares += other.sumOfSquares;
+        count += other.count;
+    }
+
+    // Population standard deviation of the daily totals.
+    public double getStandardDeviation() {
+        if (count == 0) return 0;
+        double mean = total / count;
+        return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+    }
+
+    public static Path sidecarFor(Path log) {
+        return log.resolveSibling(log.getFileName() + ".stats");
+    }
+
+    // Returns the aggregates stored for `log`, or null if the sidecar is
+    // missing, unreadable or describes a different version of the log.
+    public static UsageAggregates load(Path log) {
+        Path sidecar = sidecarFor(log);
+        if (!Files.exists(sidecar)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long logSize = in.readLong(), logModified = in.readLong();
+            if (!Files.exists(log) || Files.size(log) != logSize
+                    || Files.getLastModifiedTime(log).toMillis() != logModified) {
+                return null;
+            }
+            UsageAggregates a = new UsageAggregates();
+            a.count = in.readLong();
+            a.total = in.readDouble();
+            a.sumOfSquares = in.readDouble();
+            a.minTotal = in.readFloat();
+            a.maxTotal = in.readFloat();
+            a.minDate = in.readUTF();
+            a.maxDate = in.readUTF();
+            for (int c = 0; c < CATEGORIES; c++) {
+                a.categoryTotals[c] = in.readDouble();
+                a.categoryMin[c] = in.readFloat();
+                a.categoryMax[c] = in.readFloat();
+            }
+            return a;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Writes the sidecar for the log as it is now. The file is replaced
+    // atomically so a crash never leaves a half-written sidecar behind.
+    public void save(Path log) throws IOException {
+        Path sidecar = sidecarFor(log);
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.exists(log) ? Files.size(log) : 0);
+            out.writeLong(Files.exists(log) ? Files.getLastModifiedTime(log).toMillis() : 0);
+            out.writeLong(count);
+            out.writeDouble(total);
+            out.writeDouble(sumOfSquares);
+            out.writeFloat(minTotal);
+            out.writeFloat(maxTotal);
+            out.writeUTF(minDate);
+            out.writeUTF(maxDate);
+            for (int c = 0; c < CATEGORIES; c++) {
+                out.writeDouble(categoryTotals[c]);
+                out.writeFloat(categoryMin[c]);
+                out.writeFloat(categoryMax[c]);
+            }
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
+
+// ===== ROLLING WINDOWS =====
+// The last WINDOW_DAYS days of usage in a ring buffer indexed by epoch day,
+// kept in <log>.window next to the log. A record touches one slot, and a slot
+// left over from an older day is simply overwritten, so adding is O(1). The
+// 7- and 30-day figures are read from at most WINDOW_DAYS slots, however long
+// the history is. Windows end at the latest recorded day. The sidecar goes
+// stale the same way the .stats one does.
+class RollingUsage {
+    public static final int WINDOW_DAYS = 30;
+    private static final int CATEGORIES = 5;
+    private static final int MAGIC = 0x57565257; // "WVRW"
+    private static final int VERSION = 1;
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    public static class Window {
+        public final int days;          // requested length
+        public final int recordedDays;  // days in the window with at least one entry
+        public final LocalDate end;
+        public final double[] categoryAverages = new double[CATEGORIES];
+        public final float[] categoryMax = new float[CATEGORIES];
+        public double averageTotal;
+        public float maxTotal;
+        public LocalDate maxDay;
+
+        Window(int days, int recordedDays, LocalDate end) {
+            this.days = days;
+            this.recordedDays = recordedDays;
+            this.end = end;
+        }
+    }
+
+    private final int[] slotDays = new int[WINDOW_DAYS];
+    private final int[] slotEntries = new int[WINDOW_DAYS];
+    private final float[][] slotLiters = new float[WINDOW_DAYS][CATEGORIES];
+    private int latestDay = EMPTY;
+
+    public RollingUsage() {
+        Arrays.fill(slotDays, EMPTY);
+    }
+
+    public void add(int epochDay, float[] liters) {
+        add(epochDay, 1, liters);
+    }
+
+    // Adds another log's window, e.g. to combine the meters of one household.
+    public void merge(RollingUsage other) {
+        for (int s = 0; s < WINDOW_DAYS; s++) {
+            if (other.slotDays[s] != EMPTY && other.slotDays[s] > other.latestDay - WINDOW_DAYS) {
+                add(other.slotDays[s], other.slotEntries[s], other.slotLiters[s]);
+            }
+        }
+    }
+
+    private void add(int epochDay, int entries, float[] liters) {
+        if (latestDay != EMPTY && epochDay <= latestDay - WINDOW_DAYS) return; // older than the window
+        if (latestDay == EMPTY || epochDay > latestDay) latestDay = epochDay;
+        int slot = Math.floorMod(epochDay, WINDOW_DAYS);
+        if (slotDays[slot] != epochDay) {
+            slotDays[slot] = epochDay;
+            slotEntries[slot] = 0;
+            Arrays.fill(slotLiters[slot], 0);
+        }
+        slotEntries[slot] += entries;
+        for (int c = 0; c < CATEGORIES; c++) slotLiters[slot][c] += liters[c];
+    }
+
+    public boolean isEmpty() {
+        return latestDay == EMPTY;
+    }
+
+    // Figures for the `days` days ending at the latest recorded day; averages
+    // are per recorded day, and several entries on one day count as one day.
+    public Window window(int days) {
+        if (days < 1 || days > WINDOW_DAYS) throw new IllegalArgumentException("Window must be 1-" + WINDOW_DAYS + " days.");
+        if (isEmpty()) return new Window(days, 0, null);
+        double[] sums = new double[CATEGORIES];
+        int recorded = 0;
+        float maxTotal = 0;
+        int maxDay = EMPTY;
+        float[] categoryMax = new float[CATEGORIES];
+        for (int d = latestDay - days + 1; d <= latestDay; d++) {
+            int slot = Math.floorMod(d, WINDOW_DAYS);
+            if (slotDays[slot] != d) continue;
+            float dayTotal = 0;
+            for (int c = 0; c < CATEGORIES; c++) {
+                float l = slotLiters[slot][c];
+                sums[c] += l;
+                dayTotal += l;
+                if (recorded == 0 || l > categoryMax[c]) categoryMax[c] = l;
+            }
+            if (recorded == 0 || dayTotal > maxTotal) {
+                maxTotal = dayTotal;
+                maxDay = d;
+            }
+            recorded++;
+        }
+        Window w = new Window(days, recorded, LocalDate.ofEpochDay(latestDay));
+        if (recorded == 0) return w;
+        for (int c = 0; c < CATEGORIES; c++) {
+            w.categoryAverages[c] = sums[c] / recorded;
+            w.categoryMax[c] = categoryMax[c];
+            w.averageTotal += sums[c] / recorded;
+        }
+        w.maxTotal = maxTotal;
+        w.maxDay = LocalDate.ofEpochDay(maxDay);
+        return w;
+    }
+
+    public static Path sidecarFor(Path log) {
+        return log.resolveSibling(log.getFileName() + ".window");
+    }
+
+    // Returns the window stored for `log`, or null if the sidecar is missing,
+    // unreadable or describes a different version of the log.
+    public static RollingUsage load(Path log) {
+        Path sidecar = sidecarFor(log);
+        if (!Files.exists(sidecar)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long logSize = in.readLong(), logModified = in.readLong();
+            if (!Files.exists(log) || Files.size(log) != logSize
+                    || Files.getLastModifiedTime(log).toMillis() != logModified) {
+                return null;
+            }
+            RollingUsage r = new RollingUsage();
+            r.latestDay = in.readInt();
+            for (int s = 0; s < WINDOW_DAYS; s++) {
+                r.slotDays[s] = in.readInt();
+                r.slotEntries[s] = in.readInt();
+                for (int c = 0; c < CATEGORIES; c++) r.slotLiters[s][c] = in.readFloat();
+            }
+            return r;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void save(Path log) throws IOException {
+        Path sidecar = sidecarFor(log);
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.exists(log) ? Files.size(log) : 0);
+            out.writeLong(Files.exists(log) ? Files.getLastModifiedTime(log).toMillis() : 0);
+            out.writeInt(latestDay);
+            for (int s = 0; s < WINDOW_DAYS; s++) {
+                out.writeInt(slotDays[s]);
+                out.writeInt(slotEntries[s]);
+                for (int c = 0; c < CATEGORIES; c++) out.writeFloat(slotLiters[s][c]);
+            }
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
+
+// ===== ANOMALY DETECTION =====
+// Streaming outlier detection for one household. Each category and the daily
+// total keep a running mean and variance (Welford) and an exponentially
+// weighted moving average, in a fixed array of doubles whatever the history
+// length. A day is flagged as a SPIKE when a value sits more than SPIKE_Z
+// standard deviations above its mean (an irrigation burst), and as SUSTAINED
+// when the EWMA crosses its control limit, mean + DRIFT_L * sd *
+// sqrt(ALPHA / (2 - ALPHA)) on two days running (a toilet that keeps running).
+// A sustained alarm fires once per episode and replaces the daily spikes the
+// same shift would otherwise raise. Values past the spike limit are clamped before they
+// reach the statistics, so one burst does not inflate the baseline. Nothing is
+// flagged until MIN_HISTORY days are known, and a deviation must be at least
+// MIN_EXCESS liters.
+class UsageAnomalyDetector {
+    public static final int SERIES = UsageThresholds.CATEGORY_NAMES.length + 1; // categories, then the total
+    private static final int MIN_HISTORY = 14;
+    private static final double SPIKE_Z = 3.5;
+    private static final double ALPHA = 0.2;
+    private static final double DRIFT_L = 3.0;
+    private static final double MIN_EXCESS = 10;
+    private static final double MIN_SD = 1;
+    private static final int FIELDS = 5; // count, mean, m2, ewma, drift phase
+    private static final int MAGIC = 0x57564144; // "WVAD"
+    private static final int VERSION = 1;
+
+    public enum Kind { SPIKE, SUSTAINED }
+
+    public static class Anomaly {
+        public final Kind kind;
+        public final int series;
+        public final double value;    // the day's value, or the EWMA for SUSTAINED
+        public final double expected; // running mean before this day
+        public final double deviations;
+
+        Anomaly(Kind kind, int series, double value, double expected, double deviations) {
+            this.kind = kind;
+            this.series = series;
+            this.value = value;
+            this.expected = expected;
+            this.deviations = deviations;
+        }
+
+        public String seriesName() {
+            return series < SERIES - 1 ? UsageThresholds.CATEGORY_NAMES[series] : "Total";
+        }
+
+        public String describe(String date) {
+            if (kind == Kind.SPIKE) {
+                return seriesName() + " spike on " + date + ": " + (float) value + " liters vs usual "
+                        + (float) expected + " (" + String.format("%.1f", deviations) + " sd)";
+            }
+            return seriesName() + " running high since " + date + ": trend " + (float) value
+                    + " liters/day vs usual " + (float) expected + " (possible leak)";
+        }
+    }
+
+    private final double[] state = new double[SERIES * FIELDS];
+
+    // Checks one day's liters against the history so far, then adds them to it.
+    public List<Anomaly> observe(float[] liters) {
+        List<Anomaly> found = null;
+        float total = 0;
+        for (float l : liters) total += l;
+        for (int s = 0; s < SERIES; s++) {
+            double x = s < SERIES - 1 ? liters[s] : total;
+            int at = s * FIELDS;
+            double n = state[at], mean = state[at + 1];
+            double sd = n > 1 ? Math.max(MIN_SD, Math.sqrt(state[at + 2] / (n - 1))) : MIN_SD;
+            double spikeLimit = mean + SPIKE_Z * sd;
+            boolean ready = n >= MIN_HISTORY;
+            Anomaly anomaly = null;
+            if (ready && x > spikeLimit && x - mean >= MIN_EXCESS) {
+                anomaly = new Anomaly(Kind.SPIKE, s, x, mean, (x - mean) / sd);
+                x = spikeLimit;
+            }
+            double ewma = n == 0 ? x : state[at + 3] + ALPHA * (x - state[at + 3]);
+            state[at + 3] = ewma;
+            double driftLimit = mean + DRIFT_L * sd * Math.sqrt(ALPHA / (2 - ALPHA));
+            // 0: normal, 1: EWMA over the limit for one day, 2: in a reported episode.
+            // Half-way back to the mean ends an episode, so a trend hovering at the limit alarms once.
+            double phase = state[at + 4];
+            boolean above = ready && ewma - mean >= MIN_EXCESS
+                    && ewma > (phase == 2 ? (mean + driftLimit) / 2 : driftLimit);
+            if (!above) {
+                phase = 0;
+            } else if (phase == 0) {
+                phase = 1;
+            } else if (phase == 1) {
+                phase = 2;
+                anomaly = new Anomaly(Kind.SUSTAINED, s, ewma, mean, (ewma - mean) / sd);
+            } else {
+                anomaly = null; // already reported as running high
+            }
+            state[at + 4] = phase;
+            // Welford update
+            n++;
+            double delta = x - mean;
+            mean += delta / n;
+            state[at] = n;
+            state[at + 1] = mean;
+            state[at + 2] += delta * (x - mean);
+            if (anomaly != null) {
+                if (found == null) found = new ArrayList<>(2);
+                found.add(anomaly);
+            }
+        }
+        return found == null ? Collections.emptyList() : found;
+    }
+
+    public long days() {
+        return (long) state[0];
+    }
+
+    public static Path sidecarFor(Path log) {
+        return log.resolveSibling(log.getFileName() + ".anomaly");
+    }
+
+    // Returns the state stored for `log`, or null if the sidecar is missing,
+    // unreadable or describes a different version of the log.
+    public static UsageAnomalyDetector load(Path log) {
+        Path sidecar = sidecarFor(log);
+        if (!Files.exists(sidecar)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long logSize = in.readLong(), logModified = in.readLong();
+            if (!Files.exists(log) || Files.size(log) != logSize
+                    || Files.getLastModifiedTime(log).toMillis() != logModified) {
+                return null;
+            }
+            UsageAnomalyDetector d = new UsageAnomalyDetector();
+            for (int i = 0; i < d.state.length; i++) d.state[i] = in.readDouble();
+            return d;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void save(Path log) throws IOException {
+        Path sidecar = sidecarFor(log);
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.exists(log) ? Files.size(log) : 0);
+            out.writeLong(Files.exists(log) ? Files.getLastModifiedTime(log).toMillis() : 0);
+            for (double v : state) out.writeDouble(v);
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public interface AnomalyVisitor {
+        void visit(String household, String date, Anomaly anomaly);
+    }
+
+    // Replays a text log in one pass with a detector per household, for backlogs
+    // and consolidated exports ("household,date,..." lines). Returns the number
+    // of records read; malformed lines are skipped.
+    public static long replay(Path textFile, AnomalyVisitor visitor) throws IOException {
+        Map<String, UsageAnomalyDetector> households = new HashMap<>();
+        // Exports list a household's days together, so the previous line's
+        // household usually matches and no String is needed to find it.
+        class Current {
+            byte[] key;
+            UsageAnomalyDetector detector;
+            long records;
+        }
+        Current current = new Current();
+        UsageLineParser.read(textFile, true, r -> {
+            if (!r.valid) return;
+            if (current.detector == null || (current.key.length == 0 ? r.hasHousehold() : !r.householdEquals(current.key))) {
+                String household = r.household();
+                current.key = household.getBytes(StandardCharsets.UTF_8);
+                current.detector = households.computeIfAbsent(household, h -> new UsageAnomalyDetector());
+            }
+            for (Anomaly a : current.detector.observe(r.liters)) visitor.visit(r.household(), r.date(), a);
+            current.records++;
+        });
+        return current.records;
+    }
+}
+
+// ===== DATE INDEX =====
+// Sparse index over a usage log, kept in <log>.idx. The log is cut into blocks
+// of BLOCK_RECORDS entries, and for each block the index stores where it starts
+// (byte offset in usage.txt, record number in usage.bin) and the earliest and
+// latest day in it. A date query reads only the blocks whose span overlaps the
+// range. That does not require a sorted log, but a log appended day by day
+// touches only one or two blocks per query. Entries appended since the index
+// was written are indexed on the next open; a log that shrank or was rewritten
+// is reindexed from scratch. A grown log only counts as appended to if the
+// bytes just before the old end still have the CRC32 the index recorded, so a
+// log rewritten larger is caught too.
+class UsageIndex {
+    public static final int BLOCK_RECORDS = 512;
+    private static final int MAGIC = 0x57564958; // "WVIX"
+    private static final int VERSION = 2;
+    private static final int TAIL_BYTES = 4096;
+    private static final int NO_DAY = UsageLineParser.NO_DAY;
+
+    private final Path log;
+    private final BinaryUsageLog binaryLog; // null for a text log
+    private long[] starts = new long[16];
+    private int[] minDays = new int[16];
+    private int[] maxDays = new int[16];
+    private int[] counts = new int[16];
+    private int blocks;
+    private long indexedEnd; // byte offset (text) or record number (binary) indexed so far
+    private long logSize, logModified;
+    private long tailChecksum; // CRC32 of up to TAIL_BYTES bytes ending at logSize
+
+    private UsageIndex(Path log, BinaryUsageLog binaryLog) {
+        this.log = log;
+        this.binaryLog = binaryLog;
+    }
+
+    public static Path sidecarFor(Path log) {
+        return log.resolveSibling(log.getFileName() + ".idx");
+    }
+
+    // Opens the index for `log` (text) or `binaryLog`, bringing it up to date.
+    public static UsageIndex open(Path log, BinaryUsageLog binaryLog) throws IOException {
+        UsageIndex index = new UsageIndex(log, binaryLog);
+        boolean loaded = index.load();
+        long size = Files.exists(log) ? Files.size(log) : 0;
+        long modified = Files.exists(log) ? Files.getLastModifiedTime(log).toMillis() : 0;
+        if (loaded && size == index.logSize && modified == index.logModified) return index;
+        if (!loaded || size <= index.logSize || tailChecksum(log, index.logSize) != index.tailChecksum) index.reset();
+        index.catchUp();
+        index.logSize = size;
+        index.logModified = modified;
+        index.tailChecksum = tailChecksum(log, size);
+        index.save();
+        return index;
+    }
+
+    public long indexedRecords() {
+        long n = 0;
+        for (int b = 0; b < blocks; b++) n += counts[b];
+        return n;
+    }
+
+    // Visits entries dated from `fromDay` to `toDay` inclusive, in log order.
+    public void query(long fromDay, long toDay, BinaryUsageLog.RecordVisitor visitor) throws IOException {
+        for (int b = 0; b < blocks; ) {
+            if (maxDays[b] < fromDay || minDays[b] > toDay) {
+                b++;
+                continue;
+            }
+            int end = b + 1;
+            while (end < blocks && maxDays[end] >= fromDay && minDays[end] <= toDay) end++;
+            long from = starts[b], to = end < blocks ? starts[end] : indexedEnd;
+            if (binaryLog != null) {
+                binaryLog.scan(from, to, (record, epochDay, liters) -> {
+                    if (epochDay >= fromDay && epochDay <= toDay) visitor.visit(epochDay, liters);
+                });
+            } else {
+                try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+                    UsageLineParser.read(channel, from, to, false, r -> {
+                        if (r.valid && r.epochDay != NO_DAY && r.epochDay >= fromDay && r.epochDay <= toDay) {
+                            visitor.visit(r.epochDay, r.liters);
+                        }
+                    });
+                }
+            }
+            b = end;
+        }
+    }
+
+    private void reset() {
+        blocks = 0;
+        indexedEnd = 0;
+    }
+
+    private static long tailChecksum(Path log, long end) throws IOException {
+        if (end == 0 || !Files.exists(log)) return 0;
+        ByteBuffer tail = ByteBuffer.allocate((int) Math.min(end, TAIL_BYTES));
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            long position = end - tail.capacity();
+            while (tail.hasRemaining()) {
+                int n = channel.read(tail, position + tail.position());
+                if (n < 0) return -1; // shorter than it was: cannot match
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(tail.flip());
+        return crc.getValue();
+    }
+
+    private void catchUp() throws IOException {
+        if (!Files.exists(log)) return;
+        if (binaryLog != null) {
+            long records = binaryLog.recordCount();
+            // Corrupt records are skipped by the scan but still occupy a slot in their block.
+            for (long r = indexedEnd; r < records; r++) {
+                if (blocks == 0 || counts[blocks - 1] == BLOCK_RECORDS) addBlock(r);
+                counts[blocks - 1]++;
+            }
+            binaryLog.scan(indexedEnd, records, (record, epochDay, liters) ->
+                    include((int) (record / BLOCK_RECORDS), epochDay));
+            indexedEnd = records;
+        } else {
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+                indexedEnd = UsageLineParser.read(channel, indexedEnd, channel.size(), false, r -> {
+                    if (blocks == 0 || counts[blocks - 1] == BLOCK_RECORDS) addBlock(r.offset);
+                    counts[blocks - 1]++;
+                    include(blocks - 1, r.epochDay);
+                });
+            }
+        }
+    }
+
+    private void addBlock(long start) {
+        if (blocks == starts.length) {
+            int capacity = blocks * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            minDays = Arrays.copyOf(minDays, capacity);
+            maxDays = Arrays.copyOf(maxDays, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        starts[blocks] = start;
+        minDays[blocks] = Integer.MAX_VALUE;
+        maxDays[blocks] = Integer.MIN_VALUE;
+        counts[blocks] = 0;
+        blocks++;
+    }
+
+    private void include(int block, int epochDay) {
+        if (epochDay == NO_DAY) return;
+        if (epochDay < minDays[block]) minDays[block] = epochDay;
+        if (epochDay > maxDays[block]) maxDays[block] = epochDay;
+    }
+
+    private boolean load() {
+        Path sidecar = sidecarFor(log);
+        if (!Files.exists(sidecar)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != BLOCK_RECORDS) return false;
+            int n = in.readInt();
+            indexedEnd = in.readLong();
+            logSize = in.readLong();
+            logModified = in.readLong();
+            tailChecksum = in.readLong();
+            blocks = 0;
+            for (int b = 0; b < n; b++) {
+                addBlock(in.readLong());
+                minDays[b] = in.readInt();
+                maxDays[b] = in.readInt();
+                counts[b] = in.readInt();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void save() throws IOException {
+        Path sidecar = sidecarFor(log);
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(BLOCK_RECORDS);
+            out.writeInt(blocks);
+            out.writeLong(indexedEnd);
+            out.writeLong(logSize);
+            out.writeLong(logModified);
+            out.writeLong(tailChecksum);
+            for (int b = 0; b < blocks; b++) {
+                out.writeLong(starts[b]);
+                out.writeInt(minDays[b]);
+                out.writeInt(maxDays[b]);
+                out.writeInt(counts[b]);
+            }
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
+
+// ===== HIGH USAGE THRESHOLDS =====
+// Limits for flagging a day: the daily total and, optionally, each category.
+// Households can override any of them. Read from thresholds.properties:
+//   total=500
+//   irrigation=250
+//   household.<id>.total=800
+//   household.<id>.shower=300
+// Keys that are absent fall back to the defaults (or, for households, to the
+// default limits); categories without a limit are never flagged on their own.
+class UsageThresholds {
+    public static final String[] CATEGORY_NAMES = {"Shower", "Laundry", "Dishwashing", "Toilet", "Irrigation"};
+    public static final int TOTAL_EXCEEDED = 1 << CATEGORY_NAMES.length;
+
+    private final float total;
+    private final float[] categories;
+    private final Map<String, UsageThresholds> households = new HashMap<>();
+
+    public UsageThresholds(float total) {
+        this(total, new float[CATEGORY_NAMES.length]);
+        Arrays.fill(categories, Float.POSITIVE_INFINITY);
+    }
+
+    private UsageThresholds(float total, float[] categories) {
+        this.total = total;
+        this.categories = categories;
+    }
+
+    public static UsageThresholds load(Path file, float defaultTotal) throws IOException {
+        UsageThresholds defaults = new UsageThresholds(defaultTotal);
+        if (!Files.exists(file)) return defaults;
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        UsageThresholds base = defaults.with(properties, "");
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith("household.")) continue;
+            int dot = key.lastIndexOf('.');
+            if (dot <= "household.".length()) continue;
+            String household = key.substring("household.".length(), dot);
+            if (!base.households.containsKey(household)) {
+                base.households.put(household, base.with(properties, "household." + household + "."));
+            }
+        }
+        return base;
+    }
+
+    public float getTotal() {
+        return total;
+    }
+
+    public float getCategory(int c) {
+        return categories[c];
+    }
+
+    public Map<String, UsageThresholds> getHouseholds() {
+        return households;
+    }
+
+    public UsageThresholds forHousehold(String household) {
+        return households.getOrDefault(household, this);
+    }
+
+    // Bit c is set for each category over its limit and TOTAL_EXCEEDED for the
+    // total; zero means the day is not high usage.
+    public int check(float[] liters, float dayTotal) {
+        int exceeded = dayTotal > total ? TOTAL_EXCEEDED : 0;
+        for (int c = 0; c < categories.length; c++) {
+            if (liters[c] > categories[c]) exceeded |= 1 << c;
+        }
+        return exceeded;
+    }
+
+    public String describe(int exceeded, float[] liters) {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < categories.length; c++) {
+            if ((exceeded & (1 << c)) == 0) continue;
+            sb.append(sb.length() == 0 ? " (" : ", ")
+              .append(CATEGORY_NAMES[c]).append(' ').append(liters[c]).append(" > ").append(categories[c]);
+        }
+        return sb.length() == 0 ? "" : sb.append(')').toString();
+    }
+
+    private UsageThresholds with(Properties properties, String prefix) throws IOException {
+        float[] limits = categories.clone();
+        for (int c = 0; c < limits.length; c++) {
+            limits[c] = number(properties, prefix + CATEGORY_NAMES[c].toLowerCase(), limits[c]);
+        }
+        return new UsageThresholds(number(properties, prefix + "total", total), limits);
+    }
+
+    private static float number(Properties properties, String key, float fallback) throws IOException {
+        String value = properties.getProperty(key);
+        if (value == null) return fallback;
+        try {
+            return Float.parseFloat(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid threshold " + key + "=" + value);
+        }
+    }
+}
+
+// ===== HIGH USAGE SCANNER =====
+// Parallel scan of a text usage log for days over their thresholds. The file
+// is cut into line-aligned chunks that are memory-mapped and parsed straight
+// from the mapped bytes on the common fork-join pool; only flagged lines turn
+// into objects. Lines are parsed by UsageLineParser, so a household id may
+// lead the line as in consolidated exports. Hits come
+// back ordered by date, then by position in the file, with lines whose date is
+// not YYYY-MM-DD last.
+class HighUsageScanner {
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final int MAX_CHUNK = 64 << 20;
+    private static final int CATEGORIES = UsageThresholds.CATEGORY_NAMES.length;
+
+    public static class Hit {
+        public final String household; // empty when the line has none
+        public final String date;
+        public final float[] liters;
+        public final float total;
+        public final int exceeded;
+        final int epochDay; // Integer.MAX_VALUE for free-form dates, so they sort last
+        final long offset;
+
+        Hit(String household, String date, float[] liters, float total, int exceeded, int epochDay, long offset) {
+            this.household = household;
+            this.date = date;
+            this.liters = liters;
+            this.total = total;
+            this.exceeded = exceeded;
+            this.epochDay = epochDay;
+            this.offset = offset;
+        }
+    }
+
+    public static class Result {
+        public final List<Hit> hits;
+        public final long lines;
+        public final long malformed;
+
+        Result(List<Hit> hits, long lines, long malformed) {
+            this.hits = hits;
+            this.lines = lines;
+            this.malformed = malformed;
+        }
+    }
+
+    private final UsageThresholds thresholds;
+    // Household overrides in an open-addressing table keyed by the id's bytes,
+    // so lookups do not need a String per line.
+    private final byte[][] householdKeys;
+    private final UsageThresholds[] householdLimits;
+
+    public HighUsageScanner(UsageThresholds thresholds) {
+        this.thresholds = thresholds;
+        int capacity = Integer.highestOneBit(Math.max(1, thresholds.getHouseholds().size()) * 2) * 2;
+        householdKeys = new byte[capacity][];
+        householdLimits = new UsageThresholds[capacity];
+        for (Map.Entry<String, UsageThresholds> e : thresholds.getHouseholds().entrySet()) {
+            byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+            int slot = hash(key, 0, key.length) & (capacity - 1);
+            while (householdKeys[slot] != null) slot = (slot + 1) & (capacity - 1);
+            householdKeys[slot] = key;
+            householdLimits[slot] = e.getValue();
+        }
+    }
+
+    public Result scan(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int parallelism = ForkJoinPool.commonPool().getParallelism();
+            long chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (parallelism * 4L) + 1));
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(0L);
+            for (long at = chunk; at < size; ) {
+                long next = nextLineStart(channel, at);
+                if (next >= size) break;
+                bounds.add(next);
+                at = next + chunk;
+            }
+            bounds.add(size);
+
+            List<Callable<ChunkResult>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.size(); i++) {
+                long from = bounds.get(i), to = bounds.get(i + 1);
+                tasks.add(() -> scanChunk(channel, from, to));
+            }
+            List<Hit> hits = new ArrayList<>();
+            long lines = 0, malformed = 0;
+            for (Future<ChunkResult> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                ChunkResult r = future.get();
+                hits.addAll(r.hits);
+                lines += r.lines;
+                malformed += r.malformed;
+            }
+            hits.sort(Comparator.comparingInt((Hit h) -> h.epochDay).thenComparingLong(h -> h.offset));
+            return new Result(hits, lines, malformed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scan interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static class ChunkResult {
+        final List<Hit> hits = new ArrayList<>();
+        long lines, malformed;
+    }
+
+    private ChunkResult scanChunk(FileChannel channel, long from, long to) throws IOException {
+        ChunkResult result = new ChunkResult();
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int limit = map.limit();
+        UsageRecord r = new UsageRecord();
+        int pos = 0;
+        while (pos < limit) {
+            int lineStart = pos;
+            while (pos < limit && map.get(pos) != '\n') pos++;
+            int lineEnd = pos > lineStart && map.get(pos - 1) == '\r' ? pos - 1 : pos;
+            pos++; // past '\n'
+            if (lineEnd == lineStart) continue;
+            result.lines++;
+            if (!UsageLineParser.parse(map, lineStart, lineEnd, r)) {
+                result.malformed++;
+                continue;
+            }
+            float dayTotal = r.total();
+            UsageThresholds limits = r.hasHousehold() ? lookup(map, r.householdFrom, r.householdTo) : thresholds;
+            int exceeded = limits.check(r.liters, dayTotal);
+            if (exceeded == 0) continue;
+
+            int sortDay = r.epochDay == UsageLineParser.NO_DAY ? Integer.MAX_VALUE : r.epochDay;
+            result.hits.add(new Hit(r.household(), r.date(), r.liters.clone(), dayTotal, exceeded, sortDay, from + lineStart));
+        }
+        return result;
+    }
+
+    private UsageThresholds lookup(ByteBuffer map, int from, int to) {
+        int mask = householdKeys.length - 1;
+        for (int slot = hash(map, from, to) & mask; householdKeys[slot] != null; slot = (slot + 1) & mask) {
+            byte[] key = householdKeys[slot];
+            if (key.length == to - from && matches(map, from, key)) return householdLimits[slot];
+        }
+        return thresholds;
+    }
+
+    // Also used by SmartMeterIngest for its household table.
+    static boolean matches(ByteBuffer map, int from, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (map.get(from + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    static int hash(byte[] bytes, int from, int to) {
+        return hash(ByteBuffer.wrap(bytes), from, to);
+    }
+
+    static int hash(ByteBuffer bytes, int from, int to) {
+        int h = 0x811c9dc5;
+        for (int i = from; i < to; i++) h = (h ^ bytes.get(i)) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    private static long nextLineStart(FileChannel channel, long at) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long position = at;
+        while (true) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) return channel.size();
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') return position + i + 1;
+            }
+            position += n;
+        }
+    }
+}
+
+// ===== USAGE LOG =====
+// One usage log, text or binary, with its .stats and .idx sidecars.
+class UsageLog {
+    private final Path file;
+    private final BinaryUsageLog binaryLog; // null for a text log
+
+    public UsageLog(Path file, boolean binary) {
+        this.file = file;
+        this.binaryLog = binary ? new BinaryUsageLog(file) : null;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public boolean isBinary() {
+        return binaryLog != null;
+    }
+
+    public BinaryUsageLog getBinaryLog() {
+        return binaryLog;
+    }
+
+    // Appends the entry and returns anything unusual about it compared with
+    // the history before it. GroupCommitWriter does the same for many entries
+    // at a time.
+    public List<UsageAnomalyDetector.Anomaly> append(WaterUsage usage) throws IOException {
+        // Bring the sidecars up to date before the log changes under them.
+        Sidecars state = sidecars();
+        ByteBuffer bytes = ByteBuffer.wrap(encode(usage));
+        try (FileChannel channel = openForAppend()) {
+            while (bytes.hasRemaining()) channel.write(bytes);
+        }
+        List<UsageAnomalyDetector.Anomaly> anomalies = record(state, usage);
+        save(state);
+        return anomalies;
+    }
+
+    // The entry as it is stored: a text line, or a binary record (which needs an ISO date).
+    public byte[] encode(WaterUsage usage) {
+        if (binaryLog != null) {
+            return BinaryUsageLog.encodeRecord((int) LocalDate.parse(usage.getDate().trim()).toEpochDay(), usage.getLiters());
+        }
+        StringBuilder line = new StringBuilder(usage.getDate());
+        for (UsageCategory c : usage.getCategories()) {
+            line.append(',').append(c.getLitersUsed());
+        }
+        return line.append(System.lineSeparator()).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public FileChannel openForAppend() throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        if (binaryLog != null) return binaryLog.openForAppend();
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Folds an entry that has been written into the in-memory sidecar state.
+    public List<UsageAnomalyDetector.Anomaly> record(Sidecars state, WaterUsage usage) {
+        float[] liters = usage.getLiters();
+        state.aggregates.add(usage.getDate(), liters);
+        try {
+            state.rolling.add((int) LocalDate.parse(usage.getDate().trim()).toEpochDay(), liters);
+        } catch (DateTimeParseException e) {
+            // Free-form text dates still count in the totals but have no place in a window.
+        }
+        return state.detector.observe(liters);
+    }
+
+    public void save(Sidecars state) throws IOException {
+        state.aggregates.save(file);
+        state.rolling.save(file);
+        state.detector.save(file);
+    }
+
+    // Removes every sidecar of the log, so the next reader rebuilds them from the log itself.
+    public static void deleteSidecars(Path file) throws IOException {
+        Files.deleteIfExists(UsageAggregates.sidecarFor(file));
+        Files.deleteIfExists(UsageIndex.sidecarFor(file));
+        Files.deleteIfExists(RollingUsage.sidecarFor(file));
+        Files.deleteIfExists(UsageAnomalyDetector.sidecarFor(file));
+    }
+
+    // Aggregates matching the log, rebuilt with a full pass if the sidecar is
+    // missing or stale.
+    public UsageAggregates aggregates() throws IOException {
+        UsageAggregates stored = UsageAggregates.load(file);
+        return stored != null ? stored : rebuild().aggregates;
+    }
+
+    // Rolling windows matching the log, rebuilt the same way.
+    public RollingUsage rolling() throws IOException {
+        RollingUsage stored = RollingUsage.load(file);
+        return stored != null ? stored : rebuild().rolling;
+    }
+
+    // Anomaly detector state after every entry in the log, rebuilt the same way.
+    public UsageAnomalyDetector detector() throws IOException {
+        UsageAnomalyDetector stored = UsageAnomalyDetector.load(file);
+        return stored != null ? stored : rebuild().detector;
+    }
+
+    // All summary sidecars of one log, so a writer can keep them in memory.
+    public static class Sidecars {
+        final UsageAggregates aggregates;
+        final RollingUsage rolling;
+        final UsageAnomalyDetector detector;
+
+        Sidecars() {
+            this(new UsageAggregates(), new RollingUsage(), new UsageAnomalyDetector());
+        }
+
+        Sidecars(UsageAggregates aggregates, RollingUsage rolling, UsageAnomalyDetector detector) {
+            this.aggregates = aggregates;
+            this.rolling = rolling;
+            this.detector = detector;
+        }
+    }
+
+    public Sidecars sidecars() throws IOException {
+        UsageAggregates aggregates = UsageAggregates.load(file);
+        RollingUsage rolling = RollingUsage.load(file);
+        UsageAnomalyDetector detector = UsageAnomalyDetector.load(file);
+        if (aggregates == null || rolling == null || detector == null) return rebuild();
+        return new Sidecars(aggregates, rolling, detector);
+    }
+
+    // One pass over the log that regenerates every summary sidecar.
+    private Sidecars rebuild() throws IOException {
+        Sidecars rebuilt = new Sidecars();
+        if (binaryLog != null) {
+            binaryLog.scan((epochDay, liters) -> {
+                rebuilt.aggregates.add(LocalDate.ofEpochDay(epochDay).toString(), liters);
+                rebuilt.rolling.add(epochDay, liters);
+                rebuilt.detector.observe(liters);
+            });
+        } else if (Files.exists(file)) {
+            UsageLineParser.read(file, true, r -> {
+                // household lines come from consolidated exports, not this meter
+                if (!r.valid || r.hasHousehold()) return;
+                rebuilt.aggregates.add(r);
+                rebuilt.detector.observe(r.liters);
+                // free-form dates are counted in the totals only, as in record()
+                if (r.epochDay != UsageLineParser.NO_DAY) rebuilt.rolling.add(r.epochDay, r.liters);
+            });
+        }
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        save(rebuilt);
+        return rebuilt;
+    }
+
+    public UsageIndex index() throws IOException {
+        return UsageIndex.open(file, binaryLog);
+    }
+}
+
+// ===== GROUP COMMIT WRITER =====
+// Keeps one usage log open and appends entries from any number of producer
+// threads. Entries wait in a bounded queue and a single writer thread commits
+// them in groups. A group closes when it holds Policy.maxRecords entries or
+// its oldest entry has waited Policy.maxDelayMillis. It is written with one
+// write call and forced to disk if the policy asks, and only then are the
+// producers' futures completed. The summary sidecars stay in memory and are
+// saved once per group. A group that fails may have reached the log in part,
+// so the sidecars are deleted and the next group starts from a rebuild.
+class GroupCommitWriter implements Closeable {
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    public static class Policy {
+        public static final Policy IMMEDIATE = new Policy(1, 0, false);
+
+        public final int maxRecords;
+        public final long maxDelayMillis;
+        public final boolean fsync;
+
+        public Policy(int maxRecords, long maxDelayMillis, boolean fsync) {
+            if (maxRecords < 1 || maxDelayMillis < 0) throw new IllegalArgumentException("Invalid commit policy.");
+            this.maxRecords = maxRecords;
+            this.maxDelayMillis = maxDelayMillis;
+            this.fsync = fsync;
+        }
+
+        // "records,millis[,fsync]", e.g. "256,20,fsync".
+        public static Policy parse(String spec) {
+            String[] parts = spec.split(",");
+            try {
+                if (parts.length < 2 || parts.length > 3 || (parts.length == 3 && !parts[2].trim().equals("fsync"))) {
+                    throw new NumberFormatException();
+                }
+                return new Policy(Integer.parseInt(parts[0].trim()), Long.parseLong(parts[1].trim()), parts.length == 3);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid commit policy '" + spec + "': expected records,millis[,fsync].");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return maxRecords + " records / " + maxDelayMillis + " ms" + (fsync ? " / fsync" : "");
+        }
+    }
+
+    private static class Pending {
+        final WaterUsage usage;
+        final byte[] bytes;
+        final long submitted = System.nanoTime();
+        final CompletableFuture<List<UsageAnomalyDetector.Anomaly>> done = new CompletableFuture<>();
+
+        Pending(WaterUsage usage, byte[] bytes) {
+            this.usage = usage;
+            this.bytes = bytes;
+        }
+    }
+
+    private final UsageLog log;
+    private final Policy policy;
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final FileChannel channel;
+    private UsageLog.Sidecars sidecars; // writer thread only; null until rebuilt after a failed group
+    private final Thread thread;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private volatile boolean closed;
+    private volatile long groups;
+
+    public GroupCommitWriter(UsageLog log, Policy policy) throws IOException {
+        this.log = log;
+        this.policy = policy;
+        this.sidecars = log.sidecars();
+        this.channel = log.openForAppend();
+        this.thread = new Thread(this::run, "waver-commit-" + log.getFile().getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    // Queues the entry, blocking while the queue is full. The future completes
+    // with the entry's anomalies once its group is committed.
+    public CompletableFuture<List<UsageAnomalyDetector.Anomaly>> submit(WaterUsage usage) throws IOException {
+        if (closed) throw new IOException("Writer for " + log.getFile() + " is closed.");
+        Pending pending = new Pending(usage, log.encode(usage));
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing usage.");
+        }
+        // The writer drains the queue before it stops, so only an entry queued after that is left behind.
+        if (closed && queue.remove(pending)) {
+            throw new IOException("Writer for " + log.getFile() + " is closed.");
+        }
+        return pending.done;
+    }
+
+    // Commits everything queued so far, then stops the writer and closes the log.
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    public String latencyReport() {
+        return latency.report(groups);
+    }
+
+    private void run() {
+        List<Pending> group = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(50, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                group.add(first);
+                long deadline = first.submitted + TimeUnit.MILLISECONDS.toNanos(policy.maxDelayMillis);
+                while (group.size() < policy.maxRecords) {
+                    queue.drainTo(group, policy.maxRecords - group.size());
+                    long wait = deadline - System.nanoTime();
+                    if (group.size() >= policy.maxRecords || wait <= 0 || closed) break;
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+            if (!group.isEmpty()) commit(group);
+            group.clear();
+        }
+    }
+
+    private void commit(List<Pending> group) {
+        try {
+            if (sidecars == null) sidecars = log.sidecars();
+            int size = 0;
+            for (Pending p : group) size += p.bytes.length;
+            if (buffer.capacity() < size) buffer = ByteBuffer.allocate(Integer.highestOneBit(size) * 2);
+            buffer.clear();
+            for (Pending p : group) buffer.put(p.bytes);
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            if (policy.fsync) channel.force(false);
+
+            List<List<UsageAnomalyDetector.Anomaly>> anomalies = new ArrayList<>(group.size());
+            for (Pending p : group) anomalies.add(log.record(sidecars, p.usage));
+            log.save(sidecars);
+
+            long now = System.nanoTime();
+            for (int i = 0; i < group.size(); i++) {
+                latency.record(now - group.get(i).submitted);
+                group.get(i).done.complete(anomalies.get(i));
+            }
+            groups++;
+        } catch (IOException | RuntimeException e) {
+            // Part of the group may be in the log and part in the sidecars; neither
+            // copy of the sidecars can be trusted any more.
+            sidecars = null;
+            try {
+                UsageLog.deleteSidecars(log.getFile());
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            for (Pending p : group) p.done.completeExceptionally(e);
+        }
+    }
+
+    // Commit latencies in log-linear buckets: exact below 16 µs, then 16 steps
+    // per power of two, so percentiles are within about 6% in constant memory.
+    private static class LatencyHistogram {
+        private final long[] counts = new long[60 * 16];
+        private long total, max;
+
+        synchronized void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts[bucket(micros)]++;
+            total++;
+            max = Math.max(max, micros);
+        }
+
+        synchronized String report(long groups) {
+            if (total == 0) return "No records written.";
+            return total + " record(s) in " + groups + " group(s); latency p50 " + millis(percentile(0.50))
+                    + ", p95 " + millis(percentile(0.95)) + ", p99 " + millis(percentile(0.99)) + ", max " + millis(max);
+        }
+
+        private long percentile(double p) {
+            long rank = (long) Math.ceil(p * total), seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) return Math.min(max, upperBound(b));
+            }
+            return max;
+        }
+
+        private static int bucket(long micros) {
+            if (micros < 16) return (int) micros;
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            return (exponent - 3) * 16 + (int) ((micros >>> (exponent - 4)) & 15);
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < 16) return bucket;
+            int exponent = bucket / 16 + 3;
+            return ((16L + bucket % 16 + 1) << (exponent - 4)) - 1;
+        }
+
+        private static String millis(long micros) {
+            return String.format("%.2f ms", micros / 1000.0);
+        }
+    }
+}
+
+// ===== HOUSEHOLD STORAGE =====
+// Usage for many households under one root directory. Each household has its
+// own directory, placed in one of SHARDS shard directories by a hash of its id
+// so no single directory grows with the fleet:
+//   households/shard-07/<household>/<meter>.txt   (.bin with --binary)
+// Every meter log is a segment with its own .stats and .idx sidecars, so a
+// household query only opens that household's few files, however many
+// households there are. Fleet queries fan out over households on the common
+// fork-join pool.
+class HouseholdStore {
+    public static final int SHARDS = 64;
+    private static final int HOUSEHOLDS_PER_TASK = 16;
+
+    public interface HouseholdQuery {
+        UsageAggregates run(String household) throws IOException;
+    }
+
+    private final Path root;
+    private final boolean binary;
+
+    public HouseholdStore(Path root, boolean binary) {
+        this.root = root;
+        this.binary = binary;
+    }
+
+    // Ids become directory and file names, so they are kept to a safe alphabet.
+    public static String checkId(String id) {
+        if (id == null || !id.matches("[A-Za-z0-9_-]{1,64}")) {
+            throw new IllegalArgumentException("Invalid id '" + id + "': use up to 64 letters, digits, '-' or '_'.");
+        }
+        return id;
+    }
+
+    public Path householdDir(String household) {
+        String shard = String.format("shard-%02d", Math.floorMod(checkId(household).hashCode(), SHARDS));
+        return root.resolve(shard).resolve(household);
+    }
+
+    public UsageLog segment(String household, String meter) {
+        return new UsageLog(householdDir(household).resolve(checkId(meter) + extension()), binary);
+    }
+
+    // Where SmartMeterIngest keeps the meter's days that are not complete yet.
+    public Path openDaysFile(String meter) {
+        return root.resolve(checkId(meter) + ".ingest");
+    }
+
+    public List<UsageLog> segments(String household) throws IOException {
+        Path dir = householdDir(household);
+        List<UsageLog> logs = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return logs;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + extension())) {
+            for (Path file : files) logs.add(new UsageLog(file, binary));
+        }
+        logs.sort(Comparator.comparing(UsageLog::getFile));
+        return logs;
+    }
+
+    public List<String> households() throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (!Files.isDirectory(root)) return ids;
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(root, "shard-*")) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> dirs = Files.newDirectoryStream(shard, Files::isDirectory)) {
+                    for (Path dir : dirs) ids.add(dir.getFileName().toString());
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    public UsageAggregates summary(String household) throws IOException {
+        UsageAggregates merged = new UsageAggregates();
+        for (UsageLog log : segments(household)) merged.merge(log.aggregates());
+        return merged;
+    }
+
+    public UsageAggregates totalsBetween(String household, long fromDay, long toDay) throws IOException {
+        UsageAggregates totals = new UsageAggregates();
+        for (UsageLog log : segments(household)) {
+            log.index().query(fromDay, toDay,
+                    (epochDay, liters) -> totals.add(LocalDate.ofEpochDay(epochDay).toString(), liters));
+        }
+        return totals;
+    }
+
+    // Runs `query` for every household in parallel; results are in id order.
+    public Map<String, UsageAggregates> fanOut(HouseholdQuery query) throws IOException {
+        List<String> ids = households();
+        UsageAggregates[] results = new UsageAggregates[ids.size()];
+        try {
+            ForkJoinPool.commonPool().invoke(new FanOut(ids, query, results, 0, ids.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<String, UsageAggregates> byHousehold = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; i++) byHousehold.put(ids.get(i), results[i]);
+        return byHousehold;
+    }
+
+    private String extension() {
+        return binary ? ".bin" : ".txt";
+    }
+
+    @SuppressWarnings("serial") // never serialized; only run on the fork-join pool
+    private static class FanOut extends RecursiveAction {
+        private final List<String> ids;
+        private final HouseholdQuery query;
+        private final UsageAggregates[] results;
+        private final int from, to;
+
+        FanOut(List<String> ids, HouseholdQuery query, UsageAggregates[] results, int from, int to) {
+            this.ids = ids;
+            this.query = query;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= HOUSEHOLDS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    try {
+                        results[i] = query.run(ids.get(i));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new FanOut(ids, query, results, from, mid), new FanOut(ids, query, results, mid, to));
+        }
+    }
+}
+
+// ===== SMART METER INGEST =====
+// Rolls per-minute meter readings up into daily usage in the household store.
+// A reading is one line, "household,timestamp,category,liters", e.g.
+//   h042,2024-05-01T06:31,shower,1.8
+// Each source (a file, stdin or one socket connection) is read by its own
+// thread into its own Stripe: a table of household -> open days holding a
+// milliliter counter per category. Stripes share nothing while counting, so
+// the hot path takes no locks and allocates nothing once a household is known.
+// A stripe's clock is the latest minute it has seen; when the clock passes the
+// end of a day by LATENESS_MINUTES the stripe hands that day over, and later
+// readings for it are counted as late. A day is written to each household's
+// log once every live stripe has handed it over, and only then, so each
+// (household, meter, day) gets exactly one record. Days still open when the
+// run ends are kept in <store>/<meter>.ingest with the last written day and
+// the latest minute read; the next run starts from them, adds the rest of
+// those days, and counts readings up to that minute (already ingested) or
+// for days already written as late. Feeding the same readings twice is
+// therefore harmless.
+class SmartMeterIngest {
+    public static final int LATENESS_MINUTES = 60;
+    private static final int MAGIC = 0x5756494F; // "WVIO"
+    private static final int VERSION = 1;
+    private static final int CATEGORIES = BinaryUsageLog.CATEGORIES;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final byte[][] CATEGORY_KEYS = new byte[CATEGORIES][];
+
+    static {
+        for (int c = 0; c < CATEGORIES; c++) {
+            CATEGORY_KEYS[c] = UsageThresholds.CATEGORY_NAMES[c].toLowerCase().getBytes(StandardCharsets.US_ASCII);
+        }
     }
 
-    public UsageCategory[] getCategories() {
-        return categories;
+    private final HouseholdStore store;
+    private final String meter;
+    private final Object flushLock = new Object(); // held while days are taken and written, to keep them in order
+    // Guarded by this:
+    private final Set<Stripe> live = new HashSet<>();
+    private final TreeMap<Integer, Map<String, long[]>> pending = new TreeMap<>(); // day -> household -> milliliters
+    private int closedThrough = UsageLineParser.NO_DAY; // latest day handed over by a closed stripe
+    private int flushedThrough = UsageLineParser.NO_DAY;
+    private long seenBefore = Long.MIN_VALUE; // latest minute read by an earlier run
+    private long seenThrough = Long.MIN_VALUE; // latest minute read by a closed stripe, this run or before
+    private long readings, late, malformed, days, unusual, open;
+    private String firstError;
+    private final long started = System.nanoTime();
+
+    public SmartMeterIngest(HouseholdStore store, String meter) throws IOException {
+        this.store = store;
+        this.meter = HouseholdStore.checkId(meter);
+        loadOpenDays();
     }
 
-    public float getTotalUsage() {
-        float total = 0;
-        for (UsageCategory c : categories) {
-            total += c.calculateUsage();
+    // Reads every file ("-" for stdin) on its own thread, then writes all remaining days.
+    public void ingest(List<String> sources) throws IOException {
+        List<Stripe> stripes = new ArrayList<>();
+        for (String source : sources) stripes.add(open(source.equals("-") ? "stdin" : source));
+        IOException[] failure = new IOException[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < stripes.size(); i++) {
+            Stripe stripe = stripes.get(i);
+            String source = sources.get(i);
+            threads.add(start(stripe, () -> {
+                if (source.equals("-")) {
+                    stripe.read(Channels.newChannel(System.in));
+                } else {
+                    try (FileChannel channel = FileChannel.open(Path.of(source), StandardOpenOption.READ)) {
+                        stripe.read(channel);
+                    }
+                }
+            }, failure));
+        }
+        join(threads);
+        if (failure[0] != null) throw failure[0];
+        finish();
+    }
+
+    // Accepts connections on the loopback interface, one stripe each, until
+    // `untilStopped` returns; then drops open connections and writes all
+    // remaining days.
+    public void listen(int port, Runnable untilStopped) throws IOException {
+        IOException[] failure = new IOException[1];
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        Set<SocketChannel> connections = Collections.synchronizedSet(new HashSet<>());
+        Thread acceptor;
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        SocketChannel connection = server.accept();
+                        connections.add(connection);
+                        Stripe stripe = open(String.valueOf(connection.getRemoteAddress()));
+                        threads.add(start(stripe, () -> {
+                            try (connection) {
+                                stripe.read(connection);
+                            } catch (AsynchronousCloseException e) {
+                                // dropped on stop; what it sent so far still counts
+                            } finally {
+                                connections.remove(connection);
+                            }
+                        }, failure));
+                    }
+                } catch (IOException e) {
+                    // the server was closed
+                }
+            }, "waver-ingest-accept");
+            acceptor.start();
+            untilStopped.run();
+        }
+        join(List.of(acceptor));
+        synchronized (connections) {
+            for (SocketChannel connection : connections) connection.close();
+        }
+        join(threads);
+        if (failure[0] != null) throw failure[0];
+        finish();
+    }
+
+    public synchronized String report() {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        StringBuilder report = new StringBuilder();
+        report.append(readings).append(" reading(s) in ").append(String.format("%.2f", seconds)).append(" s (")
+                .append(String.format("%.0f", readings / Math.max(seconds, 1e-9))).append("/s); ")
+                .append(days).append(" household day(s) written");
+        if (open > 0) report.append(", ").append(open).append(" still open");
+        if (unusual > 0) report.append(", ").append(unusual).append(" unusual");
+        if (late > 0) report.append("\nLate readings skipped: ").append(late);
+        if (malformed > 0) report.append("\nMalformed readings skipped: ").append(malformed).append(" (first: ").append(firstError).append(")");
+        return report.toString();
+    }
+
+    private interface SourceTask {
+        void run() throws IOException;
+    }
+
+    private Thread start(Stripe stripe, SourceTask task, IOException[] failure) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+                stripe.close();
+            } catch (IOException e) {
+                synchronized (failure) {
+                    if (failure[0] == null) failure[0] = e;
+                }
+                try {
+                    stripe.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+            }
+        }, "waver-ingest-" + stripe.source);
+        thread.start();
+        return thread;
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedIOException {
+        try {
+            for (Thread thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading meters.");
+        }
+    }
+
+    private synchronized Stripe open(String source) {
+        Stripe stripe = new Stripe(source, flushedThrough, seenBefore);
+        live.add(stripe);
+        return stripe;
+    }
+
+    // Takes over a stripe's counters for the days up to `through` and writes
+    // the days every live stripe is done with.
+    private void handOff(Stripe stripe, Map<Integer, Map<String, long[]>> counters, int through, boolean closing)
+            throws IOException {
+        synchronized (flushLock) {
+            SortedMap<Integer, Map<String, long[]>> ready;
+            synchronized (this) {
+                for (Map.Entry<Integer, Map<String, long[]>> day : counters.entrySet()) {
+                    Map<String, long[]> merged = pending.computeIfAbsent(day.getKey(), d -> new HashMap<>());
+                    for (Map.Entry<String, long[]> e : day.getValue().entrySet()) {
+                        long[] into = merged.get(e.getKey());
+                        if (into == null) {
+                            merged.put(e.getKey(), e.getValue());
+                        } else {
+                            for (int c = 0; c < CATEGORIES; c++) into[c] += e.getValue()[c];
+                        }
+                    }
+                }
+                stripe.sealed = through;
+                if (closing) {
+                    live.remove(stripe);
+                    closedThrough = Math.max(closedThrough, through);
+                    seenThrough = Math.max(seenThrough, stripe.clock);
+                    readings += stripe.readings;
+                    late += stripe.late;
+                    malformed += stripe.malformed;
+                    if (firstError == null) firstError = stripe.firstError;
+                }
+                int done = closedThrough;
+                if (!live.isEmpty()) {
+                    done = Integer.MAX_VALUE;
+                    for (Stripe s : live) done = Math.min(done, s.sealed);
+                }
+                flushedThrough = Math.max(flushedThrough, done);
+                ready = take(pending.headMap(flushedThrough, true));
+            }
+            if (ready.isEmpty()) return;
+            write(ready);
+            synchronized (this) {
+                saveOpenDays();
+            }
+        }
+    }
+
+    // Every source is closed, so every complete day is written; the days still
+    // open are kept for the next run rather than written in part.
+    private void finish() throws IOException {
+        synchronized (flushLock) {
+            synchronized (this) {
+                open = 0;
+                for (Map<String, long[]> day : pending.values()) open += day.size();
+                saveOpenDays();
+            }
+        }
+    }
+
+    private void loadOpenDays() throws IOException {
+        Path file = store.openDaysFile(meter);
+        if (!Files.exists(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException(file + " is not an ingest state file.");
+            flushedThrough = in.readInt();
+            seenBefore = seenThrough = in.readLong();
+            for (int d = in.readInt(); d > 0; d--) {
+                Map<String, long[]> households = new HashMap<>();
+                pending.put(in.readInt(), households);
+                for (int h = in.readInt(); h > 0; h--) {
+                    String household = in.readUTF();
+                    long[] milliliters = new long[CATEGORIES];
+                    for (int c = 0; c < CATEGORIES; c++) milliliters[c] = in.readLong();
+                    households.put(household, milliliters);
+                }
+            }
+        }
+    }
+
+    // Caller holds flushLock and this.
+    private void saveOpenDays() throws IOException {
+        Path file = store.openDaysFile(meter);
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(flushedThrough);
+            out.writeLong(seenThrough);
+            out.writeInt(pending.size());
+            for (Map.Entry<Integer, Map<String, long[]>> day : pending.entrySet()) {
+                out.writeInt(day.getKey());
+                out.writeInt(day.getValue().size());
+                for (Map.Entry<String, long[]> e : day.getValue().entrySet()) {
+                    out.writeUTF(e.getKey());
+                    for (int c = 0; c < CATEGORIES; c++) out.writeLong(e.getValue()[c]);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static SortedMap<Integer, Map<String, long[]>> take(SortedMap<Integer, Map<String, long[]>> days) {
+        SortedMap<Integer, Map<String, long[]>> taken = new TreeMap<>(days);
+        days.clear();
+        return taken;
+    }
+
+    // One append per household, with its sidecars loaded and saved once.
+    private void write(SortedMap<Integer, Map<String, long[]>> ready) throws IOException {
+        Map<String, List<WaterUsage>> byHousehold = new TreeMap<>();
+        for (Map.Entry<Integer, Map<String, long[]>> day : ready.entrySet()) {
+            String date = LocalDate.ofEpochDay(day.getKey()).toString();
+            for (Map.Entry<String, long[]> e : day.getValue().entrySet()) {
+                float[] liters = new float[CATEGORIES];
+                for (int c = 0; c < CATEGORIES; c++) liters[c] = e.getValue()[c] / 1000f;
+                WaterUsage daily = WaterUsage.of(date, liters);
+                byHousehold.computeIfAbsent(e.getKey(), h -> new ArrayList<>())
+                        .add(new WaterUsage(e.getKey(), meter, date, daily.getCategories()));
+            }
+        }
+        long written = 0, flagged = 0;
+        for (Map.Entry<String, List<WaterUsage>> e : byHousehold.entrySet()) {
+            UsageLog log = store.segment(e.getKey(), meter);
+            UsageLog.Sidecars state = log.sidecars();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (WaterUsage usage : e.getValue()) bytes.write(log.encode(usage));
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            try (FileChannel channel = log.openForAppend()) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+            for (WaterUsage usage : e.getValue()) flagged += log.record(state, usage).size();
+            log.save(state);
+            written += e.getValue().size();
+        }
+        synchronized (this) {
+            days += written;
+            unusual += flagged;
+        }
+    }
+
+    // The counters of one source. Only its reading thread touches them.
+    private class Stripe {
+        final String source;
+        int sealed; // days up to here have been handed over
+        final long floor; // minutes up to here were read by an earlier run
+        long clock = Long.MIN_VALUE; // latest minute seen
+        long lineNumber, readings, late, malformed;
+        String firstError;
+        // Households in an open-addressing table keyed by the id's bytes.
+        byte[][] keys = new byte[1024][];
+        OpenDays[] households = new OpenDays[1024];
+        int size;
+
+        Stripe(String source, int sealed, long floor) {
+            this.source = source;
+            this.sealed = sealed;
+            this.floor = floor;
+        }
+
+        void read(ReadableByteChannel in) throws IOException {
+            UsageLineParser.lines(in, Long.MAX_VALUE, true, (buffer, from, to, offset) -> line(buffer, from, to));
+        }
+
+        void close() throws IOException {
+            handOff(this, take(Integer.MAX_VALUE), Math.max(sealed, clock == Long.MIN_VALUE ? sealed
+                    : (int) Math.floorDiv(clock - LATENESS_MINUTES, MINUTES_PER_DAY) - 1), true);
+        }
+
+        private void line(ByteBuffer b, int from, int to) throws IOException {
+            lineNumber++;
+            while (from < to && b.get(from) == ' ') from++;
+            if (from == to) return;
+            int c1 = comma(b, from, to), c2 = comma(b, c1 + 1, to), c3 = comma(b, c2 + 1, to);
+            if (c3 >= to || comma(b, c3 + 1, to) < to) {
+                error(b, from, to, "expected 4 fields");
+                return;
+            }
+            long minute = minute(b, c1 + 1, c2);
+            if (minute == Long.MIN_VALUE) {
+                error(b, from, c1 + 1, "invalid timestamp");
+                return;
+            }
+            int category = category(b, c2 + 1, c3);
+            if (category < 0) {
+                error(b, from, c2 + 1, "unknown category");
+                return;
+            }
+            float liters = UsageLineParser.parseFloat(b, c3 + 1, to);
+            if (!(liters >= 0) || Float.isInfinite(liters)) {
+                error(b, from, c3 + 1, "invalid liters");
+                return;
+            }
+            OpenDays household = household(b, from, c1);
+            if (household == null) {
+                error(b, from, from, "invalid household id");
+                return;
+            }
+            int day = (int) Math.floorDiv(minute, MINUTES_PER_DAY);
+            if (day <= sealed || minute <= floor) {
+                late++;
+                return;
+            }
+            household.add(day, category, Math.round(liters * 1000.0));
+            readings++;
+            if (minute > clock) {
+                clock = minute;
+                int complete = (int) Math.floorDiv(clock - LATENESS_MINUTES, MINUTES_PER_DAY) - 1;
+                if (complete > sealed) handOff(this, take(complete), complete, false);
+            }
+        }
+
+        // Removes and returns the counters of every day up to `through`.
+        private Map<Integer, Map<String, long[]>> take(int through) {
+            Map<Integer, Map<String, long[]>> taken = new HashMap<>();
+            for (OpenDays household : households) {
+                if (household != null) household.take(through, taken);
+            }
+            return taken;
+        }
+
+        private OpenDays household(ByteBuffer b, int from, int to) {
+            while (to > from && b.get(to - 1) == ' ') to--;
+            int mask = keys.length - 1;
+            int slot = HighUsageScanner.hash(b, from, to) & mask;
+            for (; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot].length == to - from && HighUsageScanner.matches(b, from, keys[slot])) return households[slot];
+            }
+            byte[] key = new byte[to - from];
+            b.get(from, key);
+            String id = new String(key, StandardCharsets.UTF_8);
+            try {
+                HouseholdStore.checkId(id);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            OpenDays household = new OpenDays(id);
+            keys[slot] = key;
+            households[slot] = household;
+            if (++size * 2 > keys.length) grow();
+            return household;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            OpenDays[] oldHouseholds = households;
+            keys = new byte[oldKeys.length * 2][];
+            households = new OpenDays[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) continue;
+                int slot = HighUsageScanner.hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                households[slot] = oldHouseholds[i];
+            }
+        }
+
+        private void error(ByteBuffer b, int lineStart, int at, String message) {
+            malformed++;
+            if (firstError == null) firstError = source + " line " + lineNumber + ", column " + (at - lineStart + 1) + ": " + message;
         }
-        return total;
+    }
+
+    // The days a household has readings for that are not handed over yet,
+    // usually today and, within the lateness allowance, yesterday.
+    private static class OpenDays {
+        final String household;
+        int[] days = new int[2];
+        long[] milliliters = new long[2 * CATEGORIES];
+        int count;
+
+        OpenDays(String household) {
+            this.household = household;
+        }
+
+        void add(int day, int category, long ml) {
+            int i = 0;
+            while (i < count && days[i] != day) i++;
+            if (i == count) {
+                if (count == days.length) {
+                    days = Arrays.copyOf(days, count * 2);
+                    milliliters = Arrays.copyOf(milliliters, count * 2 * CATEGORIES);
+                }
+                days[count++] = day;
+            }
+            milliliters[i * CATEGORIES + category] += ml;
+        }
+
+        void take(int through, Map<Integer, Map<String, long[]>> into) {
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int from = i * CATEGORIES;
+                if (days[i] <= through) {
+                    into.computeIfAbsent(days[i], d -> new HashMap<>())
+                            .put(household, Arrays.copyOfRange(milliliters, from, from + CATEGORIES));
+                } else {
+                    days[kept] = days[i];
+                    System.arraycopy(milliliters, from, milliliters, kept * CATEGORIES, CATEGORIES);
+                    kept++;
+                }
+            }
+            Arrays.fill(milliliters, kept * CATEGORIES, count * CATEGORIES, 0);
+            count = kept;
+        }
+    }
+
+    // Minute since the epoch of "YYYY-MM-DDTHH:MM", optionally with ":SS" or
+    // a space instead of the 'T', or Long.MIN_VALUE.
+    private static long minute(ByteBuffer b, int from, int to) {
+        while (from < to && b.get(from) == ' ') from++;
+        while (to > from && b.get(to - 1) == ' ') to--;
+        if ((to - from != 16 && to - from != 19) || (b.get(from + 10) != 'T' && b.get(from + 10) != ' ')
+                || b.get(from + 13) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int day = UsageLineParser.parseDay(b, from, from + 10);
+        int hour = UsageLineParser.digits(b, from + 11, from + 13), min = UsageLineParser.digits(b, from + 14, from + 16);
+        if (day == UsageLineParser.NO_DAY || hour < 0 || hour > 23 || min < 0 || min > 59) return Long.MIN_VALUE;
+        if (to - from == 19 && (b.get(from + 16) != ':' || UsageLineParser.digits(b, from + 17, to) < 0)) return Long.MIN_VALUE;
+        return (long) day * MINUTES_PER_DAY + hour * 60 + min;
+    }
+
+    private static int category(ByteBuffer b, int from, int to) {
+        while (from < to && b.get(from) == ' ') from++;
+        while (to > from && b.get(to - 1) == ' ') to--;
+        for (int c = 0; c < CATEGORIES; c++) {
+            byte[] key = CATEGORY_KEYS[c];
+            if (key.length != to - from) continue;
+            int i = 0;
+            while (i < key.length && (b.get(from + i) | 0x20) == key[i]) i++;
+            if (i == key.length) return c;
+        }
+        return -1;
+    }
+
+    private static int comma(ByteBuffer b, int from, int to) {
+        while (from < to && b.get(from) != ',') from++;
+        return from;
     }
 }
 
 // ===== MAIN MANAGEMENT CLASS =====
 class WaterUsageManager {
     private static final String FILE_NAME = "usage.txt";
+    private static final String BINARY_FILE_NAME = "usage.bin";
+    private static final String HOUSEHOLDS_DIR = "households";
+    private static final String THRESHOLDS_FILE = "thresholds.properties";
     private static final float HIGH_USAGE_THRESHOLD = 500.0f;
     private Scanner sc = new Scanner(System.in);
+    private final boolean binary;
+    private final HouseholdStore store;
+    private final String household; // "" when using the single log in the working directory
+    private final String meter;
+    private final GroupCommitWriter.Policy commitPolicy;
+    private final Map<Path, GroupCommitWriter> writers = new HashMap<>();
+
+    public WaterUsageManager() {
+        this(false);
+    }
+
+    public WaterUsageManager(boolean binary) {
+        this(binary, "", "", GroupCommitWriter.Policy.IMMEDIATE);
+    }
+
+    public WaterUsageManager(boolean binary, String household, String meter, GroupCommitWriter.Policy commitPolicy) {
+        this.binary = binary;
+        this.commitPolicy = commitPolicy;
+        this.store = new HouseholdStore(Path.of(HOUSEHOLDS_DIR), binary);
+        this.household = household.isEmpty() ? "" : HouseholdStore.checkId(household);
+        this.meter = household.isEmpty() ? "" : HouseholdStore.checkId(meter);
+    }
+
+    // Converts usage.txt into usage.bin.
+    public static void convertTextLog() {
+        BinaryUsageLog log = new BinaryUsageLog(Path.of(BINARY_FILE_NAME));
+        try {
+            List<String> skipped = log.convertFrom(Path.of(FILE_NAME));
+            UsageLog.deleteSidecars(log.getFile());
+            System.out.println("Converted " + FILE_NAME + " to " + BINARY_FILE_NAME + " (" + log.recordCount() + " records).");
+            for (String line : skipped) System.out.println("Skipped " + line);
+        } catch (NoSuchFileException e) {
+            System.out.println("No usage data found.");
+        } catch (IOException e) {
+            System.out.println("Error converting file: " + e.getMessage());
+        }
+    }
+
+    // Rolls smart-meter readings up into daily usage under households/: from
+    // the listed files ("-" for stdin), or from connections to `port` until
+    // Enter is pressed.
+    public static void ingestReadings(List<String> sources, String port, String meter, boolean binary) {
+        try {
+            SmartMeterIngest ingest = new SmartMeterIngest(new HouseholdStore(Path.of(HOUSEHOLDS_DIR), binary), meter);
+            if (port.isEmpty()) {
+                ingest.ingest(sources);
+            } else {
+                int number = Integer.parseInt(port);
+                Scanner in = new Scanner(System.in);
+                ingest.listen(number, () -> {
+                    System.out.println("Listening for meter readings on port " + number + ". Press Enter to stop.");
+                    if (in.hasNextLine()) in.nextLine();
+                });
+            }
+            System.out.println(ingest.report());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid port '" + port + "'.");
+        } catch (NoSuchFileException e) {
+            System.out.println("File not found: " + e.getFile());
+        } catch (IOException e) {
+            System.out.println("Error ingesting readings: " + e.getMessage());
+        }
+    }
 
     public void displayMainMenu() {
         System.out.println("\n=== WaVer - Smart Water Usage Tracker ===");
@@ -126,8 +2699,12 @@ class WaterUsageManager {
         System.out.println("2. View Usage Summary");
         System.out.println("3. Check for High Usage Days");
         System.out.println("4. View Water-Saving Tips");
-        System.out.println("5. Exit");
-        System.out.print("Enter your choice (1-5): ");
+        System.out.println("5. View Usage History");
+        System.out.println("6. View Usage by Date");
+        System.out.println("7. Fleet Overview");
+        System.out.println("8. Scan for Unusual Usage");
+        System.out.println("9. Exit");
+        System.out.print("Enter your choice (1-9): ");
     }
 
     public void start() {
@@ -142,19 +2719,27 @@ class WaterUsageManager {
                     case 2 -> viewUsageSummary();
                     case 3 -> checkHighUsage();
                     case 4 -> displayWaterSavingTips();
-                    case 5 -> System.out.println("Exiting WaVer. Thank you for conserving water!");
-                    default -> System.out.println("Invalid choice. Please enter 1–5.");
+                    case 5 -> viewUsageHistory();
+                    case 6 -> viewUsageByDate();
+                    case 7 -> viewFleetOverview();
+                    case 8 -> scanForAnomalies();
+                    case 9 -> {
+                        closeWriters();
+                        System.out.println("Exiting WaVer. Thank you for conserving water!");
+                    }
+                    default -> System.out.println("Invalid choice. Please enter 1–9.");
                 }
             } catch (NumberFormatException e) {
                 System.out.println("Invalid input. Please enter a number.");
             }
-        } while (choice != 5);
+        } while (choice != 9);
     }
 
     private void logDailyUsage() {
         try {
             System.out.print("\nEnter today's date (YYYY-MM-DD): ");
             String date = sc.nextLine();
+            if (binary) LocalDate.parse(date.trim()); // binary records need a real date
 
             UsageCategory[] categories = new UsageCategory[5];
             categories[0] = new Shower(getLitersInput("Enter shower water usage (liters): "));
@@ -163,15 +2748,18 @@ class WaterUsageManager {
             categories[3] = new Toilet(getLitersInput("Enter toilet water usage (liters): "));
             categories[4] = new Irrigation(getLitersInput("Enter irrigation/gardening water usage (liters): "));
 
-            WaterUsage usage = new WaterUsage(date, categories);
+            WaterUsage usage = new WaterUsage(household, meter, date, categories);
             displayUsageData(usage);
 
             System.out.print("Is this information correct? (y/n): ");
             char confirm = sc.nextLine().toLowerCase().charAt(0);
 
             if (confirm == 'y') {
-                saveToFile(usage);
+                List<UsageAnomalyDetector.Anomaly> anomalies = saveToFile(usage);
                 System.out.println("Data saved successfully!");
+                for (UsageAnomalyDetector.Anomaly a : anomalies) {
+                    System.out.println("Unusual usage: " + a.describe(usage.getDate()));
+                }
                 System.out.println("Total usage today: " + usage.getTotalUsage() + " liters");
                 if (usage.getTotalUsage() > HIGH_USAGE_THRESHOLD) {
                     System.out.println("Warning: High water usage detected!");
@@ -197,92 +2785,461 @@ class WaterUsageManager {
         }
     }
 
-    private void saveToFile(WaterUsage usage) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FILE_NAME, true))) {
-            writer.write(usage.getDate());
-            for (UsageCategory c : usage.getCategories()) {
-                writer.write("," + c.getLitersUsed());
+    private List<UsageAnomalyDetector.Anomaly> saveToFile(WaterUsage usage) {
+        try {
+            UsageLog log = logFor(usage);
+            GroupCommitWriter writer = writers.get(log.getFile());
+            if (writer == null) {
+                writer = new GroupCommitWriter(log, commitPolicy);
+                writers.put(log.getFile(), writer);
             }
-            writer.newLine();
+            return writer.submit(usage).get();
         } catch (IOException e) {
             System.out.println("Error saving to file: " + e.getMessage());
+        } catch (ExecutionException e) {
+            System.out.println("Error saving to file: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error saving to file: interrupted.");
+        }
+        return Collections.emptyList();
+    }
+
+    private void closeWriters() {
+        for (GroupCommitWriter writer : writers.values()) {
+            try {
+                writer.close();
+                if (writer.getPolicy() != GroupCommitWriter.Policy.IMMEDIATE) {
+                    System.out.println("Writes (" + writer.getPolicy() + "): " + writer.latencyReport());
+                }
+            } catch (IOException e) {
+                System.out.println("Error closing file: " + e.getMessage());
+            }
         }
+        writers.clear();
+    }
+
+    private UsageLog logFor(WaterUsage usage) {
+        if (usage.getHouseholdId().isEmpty()) return singleLog();
+        return store.segment(usage.getHouseholdId(), usage.getMeterId());
+    }
+
+    private UsageLog singleLog() {
+        return new UsageLog(Path.of(binary ? BINARY_FILE_NAME : FILE_NAME), binary);
+    }
+
+    // The logs the views read: the single working-directory log, or every
+    // meter of the selected household.
+    private List<UsageLog> logs() throws IOException {
+        if (household.isEmpty()) return List.of(singleLog());
+        return store.segments(household);
+    }
+
+    private UsageAggregates aggregates() throws IOException {
+        if (!household.isEmpty()) return store.summary(household);
+        return logs().get(0).aggregates();
+    }
+
+    private RollingUsage rolling() throws IOException {
+        RollingUsage merged = new RollingUsage();
+        for (UsageLog log : logs()) merged.merge(log.rolling());
+        return merged;
     }
 
     private void viewUsageSummary() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_NAME))) {
-            String line;
-            float grandTotal = 0;
-            int count = 0;
-
-            System.out.println("\n=== Water Usage Summary ===");
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                String date = data[0];
-                float[] liters = new float[5];
-                for (int i = 0; i < 5; i++) {
-                    liters[i] = Float.parseFloat(data[i + 1]);
-                }
-
-                UsageCategory[] categories = {
-                    new Shower(liters[0]),
-                    new Laundry(liters[1]),
-                    new Dishwashing(liters[2]),
-                    new Toilet(liters[3]),
-                    new Irrigation(liters[4])
-                };
-
-                WaterUsage usage = new WaterUsage(date, categories);
-                displayUsageData(usage);
-                grandTotal += usage.getTotalUsage();
-                count++;
+        UsageAggregates a;
+        RollingUsage recent;
+        try {
+            a = aggregates();
+            recent = rolling();
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+            return;
+        }
+        System.out.println("\n=== Water Usage Summary ===");
+        if (!household.isEmpty()) System.out.println("Household: " + household);
+        printAggregates(a);
+        if (recent.isEmpty()) return;
+
+        RollingUsage.Window week = recent.window(7), month = recent.window(RollingUsage.WINDOW_DAYS);
+        printWindow(week);
+        printWindow(month);
+        if (week.recordedDays > 0 && month.averageTotal > 0) {
+            double change = (week.averageTotal / month.averageTotal - 1) * 100;
+            System.out.println("\nThis week's daily average is " + Math.round(Math.abs(change)) + "% "
+                    + (change >= 0 ? "above" : "below") + " the " + month.days + "-day average.");
+        }
+    }
+
+    private void printWindow(RollingUsage.Window w) {
+        System.out.println("\nLast " + w.days + " days (to " + w.end + "): " + w.recordedDays + " day(s) recorded");
+        if (w.recordedDays == 0) return;
+        StringBuilder categories = new StringBuilder();
+        for (int c = 0; c < UsageThresholds.CATEGORY_NAMES.length; c++) {
+            categories.append(c == 0 ? "" : ", ").append(UsageThresholds.CATEGORY_NAMES[c]).append(' ')
+                      .append((float) w.categoryAverages[c]);
+        }
+        System.out.println("Moving average: " + (float) w.averageTotal + " liters/day (" + categories + ")");
+        System.out.println("Highest day: " + w.maxDay + " (" + w.maxTotal + " liters)");
+        StringBuilder peaks = new StringBuilder();
+        for (int c = 0; c < UsageThresholds.CATEGORY_NAMES.length; c++) {
+            peaks.append(c == 0 ? "" : ", ").append(UsageThresholds.CATEGORY_NAMES[c]).append(' ').append(w.categoryMax[c]);
+        }
+        System.out.println("Daily peaks: " + peaks);
+    }
+
+    private void printAggregates(UsageAggregates a) {
+        if (a.getCount() == 0) {
+            System.out.println("No data available.");
+            return;
+        }
+        String[] names = {"Shower", "Laundry", "Dishwashing", "Toilet", "Irrigation"};
+        for (int c = 0; c < names.length; c++) {
+            System.out.println(names[c] + ": " + (float) a.getCategoryTotal(c) + " liters"
+                    + " (avg " + (float) (a.getCategoryTotal(c) / a.getCount())
+                    + ", min " + a.getCategoryMin(c) + ", max " + a.getCategoryMax(c) + ")");
+        }
+        System.out.println("\nTotal recorded days: " + a.getCount());
+        System.out.println("Grand total usage: " + (float) a.getTotal() + " liters");
+        System.out.println("Average daily usage: " + (float) a.getAverage() + " liters");
+        System.out.println("Standard deviation: " + (float) a.getStandardDeviation() + " liters");
+        System.out.println("Lowest day: " + a.getMinDate() + " (" + a.getMinTotal() + " liters)");
+        System.out.println("Highest day: " + a.getMaxDate() + " (" + a.getMaxTotal() + " liters)");
+    }
+
+    private void viewUsageByDate() {
+        System.out.println("\n=== Usage by Date ===");
+        System.out.println("1. Single Day");
+        System.out.println("2. Date Range");
+        System.out.println("3. Month");
+        System.out.println("4. Year");
+        System.out.print("Enter your choice (1-4): ");
+        try {
+            int choice = Integer.parseInt(sc.nextLine().trim());
+            switch (choice) {
+                case 1 -> {
+                    System.out.print("Enter date (YYYY-MM-DD): ");
+                    LocalDate day = LocalDate.parse(sc.nextLine().trim());
+                    boolean[] found = {false};
+                    query(day.toEpochDay(), day.toEpochDay(), (epochDay, liters) -> {
+                        displayUsageData(WaterUsage.of(day.toString(), liters));
+                        found[0] = true;
+                    });
+                    if (!found[0]) System.out.println("No usage recorded on " + day + ".");
+                }
+                case 2 -> {
+                    System.out.print("Enter start date (YYYY-MM-DD): ");
+                    LocalDate from = LocalDate.parse(sc.nextLine().trim());
+                    System.out.print("Enter end date (YYYY-MM-DD): ");
+                    LocalDate to = LocalDate.parse(sc.nextLine().trim());
+                    System.out.println("\n=== Usage from " + from + " to " + to + " ===");
+                    printAggregates(totalsBetween(from, to));
+                }
+                case 3 -> {
+                    System.out.print("Enter month (YYYY-MM): ");
+                    YearMonth month = YearMonth.parse(sc.nextLine().trim());
+                    System.out.println("\n=== Usage for " + month + " ===");
+                    printAggregates(totalsBetween(month.atDay(1), month.atEndOfMonth()));
+                }
+                case 4 -> {
+                    System.out.print("Enter year (YYYY): ");
+                    int year = Integer.parseInt(sc.nextLine().trim());
+                    viewYear(year);
+                }
+                default -> System.out.println("Invalid choice. Please enter 1–4.");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input. Please enter a number.");
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date: " + e.getParsedString());
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+        }
+    }
+
+    private void viewYear(int year) throws IOException {
+        UsageAggregates[] months = new UsageAggregates[12];
+        for (int m = 0; m < 12; m++) months[m] = new UsageAggregates();
+        UsageAggregates whole = new UsageAggregates();
+        LocalDate first = LocalDate.of(year, 1, 1);
+        query(first.toEpochDay(), first.plusYears(1).toEpochDay() - 1, (epochDay, liters) -> {
+            LocalDate day = LocalDate.ofEpochDay(epochDay);
+            months[day.getMonthValue() - 1].add(day.toString(), liters);
+            whole.add(day.toString(), liters);
+        });
+        System.out.println("\n=== Usage for " + year + " ===");
+        for (int m = 0; m < 12; m++) {
+            if (months[m].getCount() == 0) continue;
+            System.out.println(YearMonth.of(year, m + 1) + ": " + (float) months[m].getTotal() + " liters over "
+                    + months[m].getCount() + " day(s)");
+        }
+        System.out.println();
+        printAggregates(whole);
+    }
+
+    private UsageAggregates totalsBetween(LocalDate from, LocalDate to) throws IOException {
+        UsageAggregates totals = new UsageAggregates();
+        query(from.toEpochDay(), to.toEpochDay(),
+                (epochDay, liters) -> totals.add(LocalDate.ofEpochDay(epochDay).toString(), liters));
+        return totals;
+    }
+
+    private void query(long fromDay, long toDay, BinaryUsageLog.RecordVisitor visitor) throws IOException {
+        for (UsageLog log : logs()) log.index().query(fromDay, toDay, visitor);
+    }
+
+    private void viewFleetOverview() {
+        System.out.println("\n=== Fleet Overview ===");
+        System.out.println("1. All-Time Summary");
+        System.out.println("2. Month Summary");
+        System.out.print("Enter your choice (1-2): ");
+        try {
+            int choice = Integer.parseInt(sc.nextLine().trim());
+            Map<String, UsageAggregates> byHousehold;
+            switch (choice) {
+                case 1 -> {
+                    byHousehold = store.fanOut(store::summary);
+                    System.out.println("\n=== Fleet Usage (All Time) ===");
+                }
+                case 2 -> {
+                    System.out.print("Enter month (YYYY-MM): ");
+                    YearMonth month = YearMonth.parse(sc.nextLine().trim());
+                    long from = month.atDay(1).toEpochDay(), to = month.atEndOfMonth().toEpochDay();
+                    byHousehold = store.fanOut(h -> store.totalsBetween(h, from, to));
+                    System.out.println("\n=== Fleet Usage for " + month + " ===");
+                }
+                default -> {
+                    System.out.println("Invalid choice. Please enter 1–2.");
+                    return;
+                }
+            }
+            if (byHousehold.isEmpty()) {
+                System.out.println("No households found.");
+                return;
+            }
+            UsageAggregates fleet = new UsageAggregates();
+            for (UsageAggregates a : byHousehold.values()) fleet.merge(a);
+            System.out.println("Households: " + byHousehold.size());
+            printAggregates(fleet);
+
+            List<Map.Entry<String, UsageAggregates>> ranked = new ArrayList<>(byHousehold.entrySet());
+            ranked.sort((x, y) -> Double.compare(y.getValue().getTotal(), x.getValue().getTotal()));
+            System.out.println("\nTop households by usage:");
+            for (int i = 0; i < Math.min(10, ranked.size()); i++) {
+                UsageAggregates a = ranked.get(i).getValue();
+                System.out.println((i + 1) + ". " + ranked.get(i).getKey() + ": " + (float) a.getTotal()
+                        + " liters over " + a.getCount() + " day(s)");
             }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid input. Please enter a number.");
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date: " + e.getParsedString());
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+        }
+    }
 
-            if (count > 0) {
-                System.out.println("\nTotal recorded days: " + count);
-                System.out.println("Grand total usage: " + grandTotal + " liters");
-                System.out.println("Average daily usage: " + (grandTotal / count) + " liters");
+    private void scanForAnomalies() {
+        System.out.print("\nFile to scan (blank for your usage log): ");
+        String name = sc.nextLine().trim();
+        System.out.println("\n=== Unusual Usage ===");
+        long[] flagged = {0};
+        UsageAnomalyDetector.AnomalyVisitor print = (who, date, a) -> {
+            System.out.println((who.isEmpty() ? "" : "[" + who + "] ") + a.describe(date));
+            flagged[0]++;
+        };
+        try {
+            long records = 0;
+            if (!name.isEmpty()) {
+                records = UsageAnomalyDetector.replay(Path.of(name), print);
             } else {
-                System.out.println("No data available.");
+                for (UsageLog log : logs()) {
+                    if (!log.isBinary()) {
+                        if (Files.exists(log.getFile())) records += UsageAnomalyDetector.replay(log.getFile(), print);
+                        continue;
+                    }
+                    UsageAnomalyDetector detector = new UsageAnomalyDetector();
+                    long[] count = {0};
+                    log.getBinaryLog().scan((epochDay, liters) -> {
+                        for (UsageAnomalyDetector.Anomaly a : detector.observe(liters)) {
+                            print.visit("", LocalDate.ofEpochDay(epochDay).toString(), a);
+                        }
+                        count[0]++;
+                    });
+                    records += count[0];
+                }
+            }
+            System.out.println("\nChecked " + records + " record(s); " + flagged[0] + " unusual reading(s).");
+        } catch (NoSuchFileException e) {
+            System.out.println("No usage data found.");
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+        }
+    }
+
+    private void viewUsageHistory() {
+        try {
+            List<UsageLog> logs = logs();
+            if (logs.isEmpty()) {
+                System.out.println("No usage data found.");
             }
+            for (UsageLog log : logs) {
+                if (!household.isEmpty()) System.out.println("\nMeter: " + meterName(log));
+                if (log.isBinary()) viewBinaryUsageHistory(log.getBinaryLog());
+                else viewUsageHistory(log.getFile());
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+        }
+    }
 
-        } catch (FileNotFoundException e) {
+    private static String meterName(UsageLog log) {
+        String name = log.getFile().getFileName().toString();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    private void viewUsageHistory(Path file) {
+        float[] grandTotal = {0};
+        int[] count = {0};
+        List<String> skipped = new ArrayList<>();
+        System.out.println("\n=== Water Usage History ===");
+        try {
+            UsageLineParser.read(file, true, r -> {
+                if (!r.valid) {
+                    skipped.add(r.describeError());
+                    return;
+                }
+                if (r.hasHousehold()) {
+                    skipped.add("Line " + r.lineNumber + ", column 1: household lines are not part of this log");
+                    return;
+                }
+                WaterUsage usage = WaterUsage.of(r.date(), r.liters);
+                displayUsageData(usage);
+                grandTotal[0] += usage.getTotalUsage();
+                count[0]++;
+            });
+        } catch (NoSuchFileException e) {
             System.out.println("No usage data found.");
+            return;
         } catch (IOException e) {
             System.out.println("Error reading file.");
+            return;
+        }
+        if (!skipped.isEmpty()) {
+            System.out.println("\nSkipped " + skipped.size() + " line(s):");
+            for (String s : skipped) System.out.println("  " + s);
+        }
+        if (count[0] > 0) {
+            System.out.println("\nTotal recorded days: " + count[0]);
+            System.out.println("Grand total usage: " + grandTotal[0] + " liters");
+            System.out.println("Average daily usage: " + (grandTotal[0] / count[0]) + " liters");
+        } else {
+            System.out.println("No data available.");
+        }
+    }
+
+    private void viewBinaryUsageHistory(BinaryUsageLog binaryLog) {
+        float[] grandTotal = {0};
+        int[] count = {0};
+        System.out.println("\n=== Water Usage History ===");
+        try {
+            long corrupt = binaryLog.scan((epochDay, liters) -> {
+                WaterUsage usage = WaterUsage.of(LocalDate.ofEpochDay(epochDay).toString(), liters);
+                displayUsageData(usage);
+                grandTotal[0] += usage.getTotalUsage();
+                count[0]++;
+            });
+            if (corrupt > 0) System.out.println("\nSkipped " + corrupt + " damaged record(s).");
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+            return;
+        }
+        if (count[0] > 0) {
+            System.out.println("\nTotal recorded days: " + count[0]);
+            System.out.println("Grand total usage: " + grandTotal[0] + " liters");
+            System.out.println("Average daily usage: " + (grandTotal[0] / count[0]) + " liters");
+        } else {
+            System.out.println("No data available.");
         }
     }
 
     private void checkHighUsage() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_NAME))) {
-            String line;
-            boolean found = false;
+        UsageThresholds thresholds;
+        try {
+            thresholds = UsageThresholds.load(Path.of(THRESHOLDS_FILE), HIGH_USAGE_THRESHOLD);
+        } catch (IOException e) {
+            System.out.println("Error reading " + THRESHOLDS_FILE + ": " + e.getMessage());
+            return;
+        }
+        List<UsageLog> logs;
+        try {
+            logs = logs();
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+            return;
+        }
+        // A household's own logs carry no id column, so apply its limits here.
+        UsageThresholds limits = household.isEmpty() ? thresholds : thresholds.forHousehold(household);
+        if (logs.isEmpty()) {
             System.out.println("\n=== High Usage Analysis ===");
+            System.out.println("No usage data found.");
+        }
+        for (UsageLog log : logs) {
+            if (!household.isEmpty()) System.out.println("\nMeter: " + meterName(log));
+            if (log.isBinary()) checkBinaryHighUsage(log.getBinaryLog(), limits);
+            else checkHighUsage(log.getFile(), limits);
+        }
+    }
 
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                String date = data[0];
-                float total = 0;
-                for (int i = 1; i <= 5; i++) {
-                    total += Float.parseFloat(data[i]);
-                }
-
-                if (total > HIGH_USAGE_THRESHOLD) {
-                    System.out.println("High usage on " + date + ": " + total + " liters");
-                    found = true;
-                }
+    private void checkHighUsage(Path file, UsageThresholds thresholds) {
+        System.out.println("\n=== High Usage Analysis ===");
+        try {
+            HighUsageScanner.Result result = new HighUsageScanner(thresholds).scan(file);
+            for (HighUsageScanner.Hit hit : result.hits) {
+                String who = hit.household.isEmpty() ? "" : "[" + hit.household + "] ";
+                System.out.println(who + "High usage on " + hit.date + ": " + hit.total + " liters"
+                        + thresholds.forHousehold(hit.household).describe(hit.exceeded, hit.liters));
             }
-
-            if (!found) {
+            if (result.hits.isEmpty()) {
                 System.out.println("No high usage days found.");
             }
-
+            if (result.malformed > 0) {
+                System.out.println("Skipped " + result.malformed + " malformed line(s).");
+            }
+        } catch (NoSuchFileException e) {
+            System.out.println("No usage data found.");
         } catch (IOException e) {
             System.out.println("Error reading file.");
         }
     }
 
+    private void checkBinaryHighUsage(BinaryUsageLog binaryLog, UsageThresholds thresholds) {
+        boolean[] found = {false};
+        System.out.println("\n=== High Usage Analysis ===");
+        try {
+            binaryLog.scan((epochDay, liters) -> {
+                float total = 0;
+                for (float l : liters) total += l;
+                int exceeded = thresholds.check(liters, total);
+                if (exceeded != 0) {
+                    System.out.println("High usage on " + LocalDate.ofEpochDay(epochDay) + ": " + total + " liters"
+                            + thresholds.describe(exceeded, liters));
+                    found[0] = true;
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+            return;
+        }
+        if (!found[0]) {
+            System.out.println("No high usage days found.");
+        }
+    }
+
     private void displayUsageData(WaterUsage usage) {
+        if (!usage.getHouseholdId().isEmpty()) {
+            System.out.println("\nHousehold: " + usage.getHouseholdId() + " (meter " + usage.getMeterId() + ")");
+        }
         System.out.println("\nDate: " + usage.getDate());
         for (UsageCategory c : usage.getCategories()) {
             c.displayInfo();
@@ -304,9 +3261,43 @@ class WaterUsageManager {
 }
 
 // ===== MAIN CLASS =====
+// Run: java WaverApp [--binary] [--convert] [--household <id> [--meter <id>]]
+//                     [--group-commit <records>,<millis>[,fsync]]
+//                     [--ingest <file>[,<file>...] | --ingest-port <port>]
+//   --binary        keep usage in usage.bin instead of usage.txt
+//   --convert       convert usage.txt to usage.bin first (implies --binary)
+//   --household     log and view one household's usage under households/
+//   --meter         the household meter to log to (default "main")
+//   --group-commit  batch writes and report write latency on exit
+//   --ingest        roll per-minute meter readings ("-" for stdin) up into
+//                   daily usage under households/ (meter from --meter), then exit
+//   --ingest-port   the same for readings sent to a local TCP port
 public class WaverApp {
     public static void main(String[] args) {
-        WaterUsageManager manager = new WaterUsageManager();
-        manager.start();
+        List<String> options = Arrays.asList(args);
+        boolean convert = options.contains("--convert");
+        String household = option(options, "--household", "");
+        String meter = option(options, "--meter", "main");
+        if (convert) WaterUsageManager.convertTextLog();
+        String ingest = option(options, "--ingest", ""), ingestPort = option(options, "--ingest-port", "");
+        try {
+            if (!ingest.isEmpty() || !ingestPort.isEmpty()) {
+                WaterUsageManager.ingestReadings(Arrays.asList(ingest.split(",")), ingestPort, meter,
+                        convert || options.contains("--binary"));
+                return;
+            }
+            String commit = option(options, "--group-commit", "");
+            GroupCommitWriter.Policy policy = commit.isEmpty() ? GroupCommitWriter.Policy.IMMEDIATE
+                    : GroupCommitWriter.Policy.parse(commit);
+            WaterUsageManager manager = new WaterUsageManager(convert || options.contains("--binary"), household, meter, policy);
+            manager.start();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static String option(List<String> options, String name, String fallback) {
+        int at = options.indexOf(name);
+        return at >= 0 && at + 1 < options.size() ? options.get(at + 1) : fallback;
     }
 }